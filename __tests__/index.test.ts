@@ -9,14 +9,27 @@ const mockPlugin = {
   start: jest.fn(),
   stop: jest.fn(),
   update: jest.fn(),
+  configureNotificationUpdates: jest.fn(),
   registerTask: jest.fn(),
   unregisterTask: jest.fn(),
   getTaskResult: jest.fn(),
+  ackTaskEvents: jest.fn(),
+  configureTaskEvents: jest.fn(),
+  subscribeTaskEvents: jest.fn(),
+  unsubscribeTaskEvents: jest.fn(),
   addGeofence: jest.fn(),
   removeGeofence: jest.fn(),
   removeAllGeofences: jest.fn(),
   getMetrics: jest.fn(),
   resetMetrics: jest.fn(),
+  subscribeMetrics: jest.fn(),
+  unsubscribeMetrics: jest.fn(),
+  configurePerformanceAlerts: jest.fn(),
+  configureMetricsExport: jest.fn(),
+  exportMetrics: jest.fn(),
+  configureMemoryMetrics: jest.fn(),
+  setTracing: jest.fn(),
+  dumpTrace: jest.fn(),
   setTheme: jest.fn(),
   createTheme: jest.fn(),
   getCurrentTheme: jest.fn(),
@@ -52,6 +65,23 @@ describe('ThunderBgService', () => {
       expect(result.started).toBe(true);
     });
 
+    it('should pass chronometer timer mode and heartbeat option', async () => {
+      mockPlugin.start.mockResolvedValue({ started: true });
+
+      await ThunderBgService.start({
+        notificationTitle: 'Timer',
+        customLayout: 'notification_online',
+        timerViewId: 'chronoTimer',
+        timerMode: 'chronometer',
+        heartbeat: false,
+      });
+
+      expect(mockPlugin.start).toHaveBeenCalledWith(expect.objectContaining({
+        timerMode: 'chronometer',
+        heartbeat: false,
+      }));
+    });
+
     it('should handle minimal options', async () => {
       mockPlugin.start.mockResolvedValue({ started: true });
       
@@ -89,6 +119,15 @@ describe('ThunderBgService', () => {
       });
       expect(result.updated).toBe(true);
     });
+
+    it('should configure the notification update rate', async () => {
+      mockPlugin.configureNotificationUpdates.mockResolvedValue({ maxUpdatesPerSecond: 2 });
+
+      const result = await ThunderBgService.configureNotificationUpdates({ maxUpdatesPerSecond: 2 });
+
+      expect(mockPlugin.configureNotificationUpdates).toHaveBeenCalledWith({ maxUpdatesPerSecond: 2 });
+      expect(result.maxUpdatesPerSecond).toBe(2);
+    });
   });
 
   describe('geofencing', () => {
@@ -144,6 +183,248 @@ describe('ThunderBgService', () => {
       expect(result.metrics).toEqual(mockMetrics);
     });
 
+    it('should expose task latency percentiles', async () => {
+      const latency = { count: 10, mean: 12.5, p50: 10, p90: 20, p99: 40, max: 41 };
+      mockPlugin.getMetrics.mockResolvedValue({
+        metrics: { taskLatency: latency, tasks: { counter: latency } },
+      });
+
+      const result = await ThunderBgService.getMetrics();
+
+      expect(result.metrics.taskLatency?.p99).toBe(40);
+      expect(result.metrics.tasks?.counter.p50).toBe(10);
+    });
+
+    it('should get metrics for a rolling window', async () => {
+      const mockMetrics = {
+        taskExecutionCount: 12,
+        window: { name: '5m', durationMs: 300000, coveredMs: 300000 },
+        rates: {
+          taskExecutionsPerMinute: 2.4,
+          notificationUpdatesPerMinute: 1,
+          locationUpdatesPerMinute: 0,
+          geofenceTriggersPerMinute: 0,
+          taskFailuresPerMinute: 0.2,
+          notificationRendersPerMinute: 1,
+        },
+        taskFailureCount: 1,
+        geofenceTriggersByType: { ENTER: 0, EXIT: 0 },
+      };
+      mockPlugin.getMetrics.mockResolvedValue({ metrics: mockMetrics });
+
+      const result = await ThunderBgService.getMetrics({ window: '5m' });
+
+      expect(mockPlugin.getMetrics).toHaveBeenCalledWith({ window: '5m' });
+      expect(result.metrics.window?.name).toBe('5m');
+      expect(result.metrics.rates?.taskExecutionsPerMinute).toBe(2.4);
+      expect(result.metrics.taskFailureCount).toBe(1);
+    });
+
+    it('should configure metrics export', async () => {
+      const status = { fileEnabled: false, filePath: null, httpEnabled: true, httpPort: 9464 };
+      mockPlugin.configureMetricsExport.mockResolvedValue(status);
+
+      const result = await ThunderBgService.configureMetricsExport({ http: true, port: 9464 });
+
+      expect(mockPlugin.configureMetricsExport).toHaveBeenCalledWith({ http: true, port: 9464 });
+      expect(result.httpPort).toBe(9464);
+    });
+
+    it('should export metrics as OpenMetrics text', async () => {
+      const text = 'thunderbg_notification_updates_total 3\n# EOF\n';
+      mockPlugin.exportMetrics.mockResolvedValue({ text });
+
+      const result = await ThunderBgService.exportMetrics();
+
+      expect(mockPlugin.exportMetrics).toHaveBeenCalled();
+      expect(result.text.endsWith('# EOF\n')).toBe(true);
+    });
+
+    it('should return memory gauges', async () => {
+      const memory = {
+        bitmapCacheBytes: 4194304,
+        bitmapCacheEntries: 2,
+        resourceCacheEntries: 12,
+        taskQueueDepth: 0,
+        eventQueueDepth: 3,
+        outboxPending: 0,
+        javaHeapUsedBytes: 8388608,
+        nativeHeapUsedBytes: 16777216,
+      };
+      mockPlugin.getMetrics.mockResolvedValue({ metrics: { memory: { ...memory, peak: memory, sampleIntervalMs: 30000 } } });
+
+      const result = await ThunderBgService.getMetrics();
+
+      expect(result.metrics.memory?.bitmapCacheBytes).toBe(4194304);
+      expect(result.metrics.memory?.peak.eventQueueDepth).toBe(3);
+    });
+
+    it('should return incremental notification render stats', async () => {
+      const notificationRender = {
+        renders: 120, skipped: 30, coalesced: 45, bindingsCompiled: 2, bindingsReused: 88,
+        propertiesChanged: 150, propertiesEmitted: 1200, changedRatio: 0.125, parcelBytes: 2048, parcelBytesMax: 4096,
+      };
+      mockPlugin.getMetrics.mockResolvedValue({ metrics: { notificationRender } });
+
+      const result = await ThunderBgService.getMetrics();
+
+      expect(result.metrics.notificationRender?.skipped).toBe(30);
+      expect(result.metrics.notificationRender?.changedRatio).toBe(0.125);
+      expect(result.metrics.notificationRender?.bindingsReused).toBe(88);
+    });
+
+    it('should return notification button cache stats', async () => {
+      const buttonCache = { hits: 396, misses: 4, hitRate: 0.99, size: 4, invalidations: 0 };
+      mockPlugin.getMetrics.mockResolvedValue({ metrics: { buttonCache } });
+
+      const result = await ThunderBgService.getMetrics();
+
+      expect(result.metrics.buttonCache?.misses).toBe(4);
+      expect(result.metrics.buttonCache?.hitRate).toBe(0.99);
+    });
+
+    it('should return service startup timings', async () => {
+      const startup = {
+        count: 4, coldCount: 1, warmCount: 1, restartCount: 2, restartsThisBoot: 2, bootTime: 1700000000000,
+        latency: { count: 4, mean: 310, p50: 280, p90: 640, p99: 640, max: 640 },
+        last: {
+          type: 'restart' as const, timestamp: 1700000500000, totalMs: 640, sinceTaskRemovedMs: 900,
+          milestones: { processStart: 500000, serviceCreate: 500210, startCommand: 500260, foreground: 500420, tasksRestored: 500640 },
+        },
+      };
+      mockPlugin.getMetrics.mockResolvedValue({ metrics: { startup } });
+
+      const result = await ThunderBgService.getMetrics();
+
+      expect(result.metrics.startup?.restartsThisBoot).toBe(2);
+      expect(result.metrics.startup?.last?.milestones.foreground).toBe(500420);
+    });
+
+    it('should get metrics grouped by state', async () => {
+      const driving = {
+        timeMs: 600000, taskRuns: 60, taskTimeMs: 1200, avgTaskMs: 20, cpuMs: 900,
+        notificationUpdates: 120, locationUpdates: 600, geofenceTriggers: 2,
+        cpuMsPerMinute: 90, notificationUpdatesPerMinute: 12,
+      };
+      mockPlugin.getMetrics.mockResolvedValue({ metrics: { currentState: 'driving', byState: { driving } } });
+
+      const result = await ThunderBgService.getMetrics({ groupBy: 'state' });
+
+      expect(mockPlugin.getMetrics).toHaveBeenCalledWith({ groupBy: 'state' });
+      expect(result.metrics.currentState).toBe('driving');
+      expect(result.metrics.byState?.driving?.notificationUpdates).toBe(120);
+    });
+
+    it('should return executor health', async () => {
+      const latency = { count: 4, mean: 2, p50: 2, p90: 3, p99: 3, max: 3 };
+      mockPlugin.getMetrics.mockResolvedValue({
+        metrics: {
+          executors: {
+            imageLoader: { poolSize: 3, activeThreads: 1, queueDepth: 2, completed: 10, shutdown: false, rejected: 0, waitTime: latency, runTime: latency },
+          },
+        },
+      });
+
+      const result = await ThunderBgService.getMetrics();
+
+      expect(result.metrics.executors?.imageLoader.queueDepth).toBe(2);
+      expect(result.metrics.executors?.imageLoader.waitTime.p90).toBe(3);
+    });
+
+    it('should report checkpoint overflows', async () => {
+      mockPlugin.getMetrics.mockResolvedValue({
+        metrics: {
+          checkpoint: { enabled: true, writes: 40, bytes: 512, maxBytes: 32752, histogramsIncluded: false, overflows: 3 },
+        },
+      });
+
+      const result = await ThunderBgService.getMetrics();
+
+      expect(result.metrics.checkpoint?.histogramsIncluded).toBe(false);
+      expect(result.metrics.checkpoint?.overflows).toBe(3);
+    });
+
+    it('should configure memory sampling interval', async () => {
+      mockPlugin.configureMemoryMetrics.mockResolvedValue({ sampleIntervalMs: 10000 });
+
+      const result = await ThunderBgService.configureMemoryMetrics({ sampleIntervalMs: 10000 });
+
+      expect(mockPlugin.configureMemoryMetrics).toHaveBeenCalledWith({ sampleIntervalMs: 10000 });
+      expect(result.sampleIntervalMs).toBe(10000);
+    });
+
+    it('should enable tracing', async () => {
+      mockPlugin.setTracing.mockResolvedValue({ enabled: true, capacity: 8192 });
+
+      const result = await ThunderBgService.setTracing({ enabled: true, capacity: 8192 });
+
+      expect(mockPlugin.setTracing).toHaveBeenCalledWith({ enabled: true, capacity: 8192 });
+      expect(result.enabled).toBe(true);
+      expect(result.capacity).toBe(8192);
+    });
+
+    it('should dump trace as Chrome trace events', async () => {
+      const dump = {
+        path: '/data/user/0/app/files/thunder_bg_traces/trace-1700000000000.json',
+        eventCount: 1,
+        trace: {
+          traceEvents: [{ name: 'task.execute', cat: 'thunderbg', ph: 'X', ts: 1000, dur: 250, pid: 1, tid: 2 }],
+          displayTimeUnit: 'ms',
+        },
+      };
+      mockPlugin.dumpTrace.mockResolvedValue(dump);
+
+      const result = await ThunderBgService.dumpTrace({ includeTrace: true });
+
+      expect(mockPlugin.dumpTrace).toHaveBeenCalledWith({ includeTrace: true });
+      expect(result.eventCount).toBe(1);
+      expect(result.trace?.traceEvents[0].ph).toBe('X');
+    });
+
+    it('should subscribe to metrics updates', async () => {
+      mockPlugin.addListener.mockResolvedValue({ remove: jest.fn() });
+      mockPlugin.subscribeMetrics.mockResolvedValue({ subscribed: true, intervalMs: 1000 });
+      const listener = jest.fn();
+
+      await ThunderBgService.addListener('metricsUpdate', listener);
+      const result = await ThunderBgService.subscribeMetrics({ intervalMs: 1000, fields: ['taskLatency', 'memory'] });
+
+      expect(mockPlugin.addListener).toHaveBeenCalledWith('metricsUpdate', listener);
+      expect(mockPlugin.subscribeMetrics).toHaveBeenCalledWith({ intervalMs: 1000, fields: ['taskLatency', 'memory'] });
+      expect(result.subscribed).toBe(true);
+    });
+
+    it('should unsubscribe from metrics updates', async () => {
+      mockPlugin.unsubscribeMetrics.mockResolvedValue({ unsubscribed: true });
+
+      const result = await ThunderBgService.unsubscribeMetrics();
+
+      expect(mockPlugin.unsubscribeMetrics).toHaveBeenCalled();
+      expect(result.unsubscribed).toBe(true);
+    });
+
+    it('should configure performance alerts', async () => {
+      const config = {
+        enabled: true, ratio: 3, sigma: 3, minDeltaMs: 50, sustainedSamples: 5, warmupSamples: 20,
+        failureBurst: 3, failureWindowMs: 300000, minIntervalMs: 600000,
+      };
+      mockPlugin.configurePerformanceAlerts.mockResolvedValue(config);
+
+      const result = await ThunderBgService.configurePerformanceAlerts({ ratio: 3, minDeltaMs: 50 });
+
+      expect(mockPlugin.configurePerformanceAlerts).toHaveBeenCalledWith({ ratio: 3, minDeltaMs: 50 });
+      expect(result.ratio).toBe(3);
+    });
+
+    it('should listen for performance alerts', async () => {
+      mockPlugin.addListener.mockResolvedValue({ remove: jest.fn() });
+      const listener = jest.fn();
+
+      await ThunderBgService.addListener('performanceAlert', listener);
+
+      expect(mockPlugin.addListener).toHaveBeenCalledWith('performanceAlert', listener);
+    });
+
     it('should reset metrics', async () => {
       mockPlugin.resetMetrics.mockResolvedValue({ reset: true });
       
@@ -240,6 +521,74 @@ describe('ThunderBgService', () => {
       expect(mockPlugin.getTaskResult).toHaveBeenCalledWith('test-task');
       expect(result.result).toEqual(mockResult);
     });
+
+    it('should acknowledge replayed task events', async () => {
+      mockPlugin.ackTaskEvents.mockResolvedValue({ acknowledged: true });
+      
+      const result = await ThunderBgService.ackTaskEvents({ upToSeq: 42 });
+
+      expect(mockPlugin.ackTaskEvents).toHaveBeenCalledWith({ upToSeq: 42 });
+      expect(result.acknowledged).toBe(true);
+    });
+
+    it('should configure task event backpressure', async () => {
+      mockPlugin.configureTaskEvents.mockResolvedValue({ configured: true });
+      
+      const result = await ThunderBgService.configureTaskEvents({
+        taskId: 'test-task',
+        backpressure: 'drop-oldest',
+        capacity: 16,
+        maxEventsPerSecond: 5,
+      });
+
+      expect(mockPlugin.configureTaskEvents).toHaveBeenCalledWith({
+        taskId: 'test-task',
+        backpressure: 'drop-oldest',
+        capacity: 16,
+        maxEventsPerSecond: 5,
+      });
+      expect(result.configured).toBe(true);
+    });
+
+    it('should enable emit-on-change with deltas', async () => {
+      mockPlugin.configureTaskEvents.mockResolvedValue({ configured: true });
+      
+      await ThunderBgService.configureTaskEvents({
+        taskId: 'poller',
+        emitOnChange: true,
+        deltaOnly: true,
+      });
+
+      expect(mockPlugin.configureTaskEvents).toHaveBeenCalledWith({
+        taskId: 'poller',
+        emitOnChange: true,
+        deltaOnly: true,
+      });
+    });
+
+    it('should subscribe to task events by id and pattern', async () => {
+      mockPlugin.subscribeTaskEvents.mockResolvedValue({ subscribed: true });
+      
+      const result = await ThunderBgService.subscribeTaskEvents({
+        taskIds: ['test-task'],
+        patterns: ['gps.*'],
+      });
+
+      expect(mockPlugin.subscribeTaskEvents).toHaveBeenCalledWith({
+        taskIds: ['test-task'],
+        patterns: ['gps.*'],
+      });
+      expect(result.subscribed).toBe(true);
+    });
+
+    it('should unsubscribe from all task events', async () => {
+      mockPlugin.unsubscribeTaskEvents.mockResolvedValue({ unsubscribed: true });
+      
+      const result = await ThunderBgService.unsubscribeTaskEvents({ all: true });
+
+      expect(mockPlugin.unsubscribeTaskEvents).toHaveBeenCalledWith({ all: true });
+      expect(result.unsubscribed).toBe(true);
+    });
   });
 
   describe('listeners', () => {
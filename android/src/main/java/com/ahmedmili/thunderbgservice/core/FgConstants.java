@@ -17,6 +17,11 @@ public final class FgConstants {
     public static final String EXTRA_TITLE_VIEW_ID = "extra_title_view_id"; // id resource name
     public static final String EXTRA_SUBTITLE_VIEW_ID = "extra_subtitle_view_id"; // id resource name
     public static final String EXTRA_TIMER_VIEW_ID = "extra_timer_view_id"; // id resource name
+    public static final String EXTRA_TIMER_MODE = "extra_timer_mode"; // "none" | "chronometer"
+    public static final String EXTRA_HEARTBEAT = "extra_heartbeat"; // boolean, battement 1 s (défaut: true)
+    public static final String TIMER_MODE_NONE = "none";
+    public static final String TIMER_MODE_CHRONOMETER = "chronometer";
+    public static final String EXTRA_UPDATE_REQUESTED_AT = "extra_update_requested_at"; // SystemClock.elapsedRealtimeNanos() à l'appel update()
     
     // Background tasks
     public static final String ACTION_REGISTER_TASK = "com.ahmedmili.thunderbgservice.action.REGISTER_TASK";
@@ -19,9 +19,10 @@ import com.ahmedmili.thunderbgservice.helpers.NotificationHelper;
 import com.ahmedmili.thunderbgservice.helpers.LocationHelper;
 import com.ahmedmili.thunderbgservice.tasks.BackgroundTask;
 import com.ahmedmili.thunderbgservice.tasks.BackgroundTaskManager;
+import com.ahmedmili.thunderbgservice.metrics.InstrumentedExecutors;
 import com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics;
+import com.ahmedmili.thunderbgservice.metrics.StartupTimer;
 
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -40,6 +41,8 @@ public class ForegroundTaskService extends Service {
     private static final String KEY_IS_RUNNING = "is_running";
     private static final String KEY_VIEW_DATA_JSON = "view_data_json";
     private static final String KEY_BUTTONS_JSON = "buttons_json";
+    private static final String KEY_TIMER_MODE = "timer_mode";
+    private static final String KEY_HEARTBEAT = "heartbeat";
     public static void startAction(Context context, String action, Intent extras) {
         Intent i = new Intent(context, ForegroundTaskService.class);
         i.setAction(action);
@@ -55,12 +58,14 @@ public class ForegroundTaskService extends Service {
     private ScheduledExecutorService scheduler; private final AtomicInteger heartbeat = new AtomicInteger(0);
     private volatile long startAtMillis = 0L;
 
-    @Override public void onCreate() { super.onCreate(); notificationHelper = new NotificationHelper(this); locationHelper = new LocationHelper(this); Log.i("ThunderBG","Service created"); }
+    @Override public void onCreate() { super.onCreate(); StartupTimer.getInstance(this).markServiceCreated(); notificationHelper = new NotificationHelper(this); locationHelper = new LocationHelper(this); Log.i("ThunderBG","Service created"); }
 
     @Override public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent != null) {
             String action = intent.getAction();
             if (ACTION_START.equals(action)) {
+                StartupTimer startupTimer = StartupTimer.getInstance(this);
+                startupTimer.markStartCommand();
                 // Charger l'état si extras absents
                 android.content.SharedPreferences prefs = getApplicationContext().getSharedPreferences(PREFS_SERVICE, Context.MODE_PRIVATE);
                 String title = intent.hasExtra(EXTRA_TITLE) ? intent.getStringExtra(EXTRA_TITLE) : prefs.getString(KEY_TITLE, null);
@@ -71,17 +76,14 @@ public class ForegroundTaskService extends Service {
                 String titleIdName = intent.hasExtra(EXTRA_TITLE_VIEW_ID) ? intent.getStringExtra(EXTRA_TITLE_VIEW_ID) : prefs.getString(KEY_TITLE_VIEW_ID, null);
                 String subtitleIdName = intent.hasExtra(EXTRA_SUBTITLE_VIEW_ID) ? intent.getStringExtra(EXTRA_SUBTITLE_VIEW_ID) : prefs.getString(KEY_SUBTITLE_VIEW_ID, null);
                 String timerIdName = intent.hasExtra(EXTRA_TIMER_VIEW_ID) ? intent.getStringExtra(EXTRA_TIMER_VIEW_ID) : prefs.getString(KEY_TIMER_VIEW_ID, null);
+                String timerMode = intent.hasExtra(EXTRA_TIMER_MODE) ? intent.getStringExtra(EXTRA_TIMER_MODE) : prefs.getString(KEY_TIMER_MODE, TIMER_MODE_NONE);
+                boolean heartbeatEnabled = intent.hasExtra(EXTRA_HEARTBEAT) ? intent.getBooleanExtra(EXTRA_HEARTBEAT, true) : prefs.getBoolean(KEY_HEARTBEAT, true);
 
                 if (customLayout != null && !customLayout.isEmpty()) {
                     notificationHelper.setCustomLayout(customLayout, titleIdName, subtitleIdName, timerIdName);
                 }
                 String viewDataJson = intent.hasExtra(EXTRA_VIEW_DATA_JSON) ? intent.getStringExtra(EXTRA_VIEW_DATA_JSON) : prefs.getString(KEY_VIEW_DATA_JSON, null);
                 String buttonsJson = intent.hasExtra(EXTRA_BUTTONS_JSON) ? intent.getStringExtra(EXTRA_BUTTONS_JSON) : prefs.getString(KEY_BUTTONS_JSON, null);
-                startForegroundInternal(title, subtitle, sounds, viewDataJson, buttonsJson);
-                if (enableLocation) locationHelper.start();
-                
-                // Démarrer le tracking des métriques
-                PerformanceMetrics.getInstance(this).startServiceTracking();
 
                 long savedStart = prefs.getLong(KEY_START_AT, 0L);
                 if (savedStart > 0L) {
@@ -90,6 +92,15 @@ public class ForegroundTaskService extends Service {
                     startAtMillis = System.currentTimeMillis();
                     prefs.edit().putLong(KEY_START_AT, startAtMillis).apply();
                 }
+                // Mode chronomètre: timer dessiné par le système depuis startAtMillis
+                notificationHelper.setChronometer(TIMER_MODE_CHRONOMETER.equals(timerMode) ? startAtMillis : 0L);
+
+                startForegroundInternal(title, subtitle, sounds, viewDataJson, buttonsJson);
+                startupTimer.markForeground();
+                if (enableLocation) locationHelper.start();
+                
+                // Démarrer le tracking des métriques
+                PerformanceMetrics.getInstance(this).startServiceTracking();
                 // Sauvegarder l'état courant
                 prefs.edit()
                         .putString(KEY_TITLE, title)
@@ -100,6 +111,8 @@ public class ForegroundTaskService extends Service {
                         .putString(KEY_TITLE_VIEW_ID, titleIdName)
                         .putString(KEY_SUBTITLE_VIEW_ID, subtitleIdName)
                         .putString(KEY_TIMER_VIEW_ID, timerIdName)
+                        .putString(KEY_TIMER_MODE, timerMode)
+                        .putBoolean(KEY_HEARTBEAT, heartbeatEnabled)
                         .putBoolean(KEY_IS_RUNNING, true)
                         .putString(KEY_VIEW_DATA_JSON, viewDataJson)
                         .putString(KEY_BUTTONS_JSON, buttonsJson)
@@ -123,19 +136,32 @@ public class ForegroundTaskService extends Service {
                 } catch (Exception ex) {
                     Log.e("ThunderBG", "Error restoring tasks", ex);
                 }
+                startupTimer.markTasksRestored();
 
-                startHeartbeat();
+                // Battement de 1 s optionnel (inutile au timer en mode chronomètre)
+                if (heartbeatEnabled) {
+                    startHeartbeat();
+                } else {
+                    stopHeartbeat();
+                }
                 
                 // Enregistrer le démarrage du service dans les métriques
                 com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics.getInstance(this).startServiceTracking();
+                com.ahmedmili.thunderbgservice.metrics.OpenMetricsExporter.getInstance(this).restore();
+                com.ahmedmili.thunderbgservice.metrics.EnergyModel.getInstance(this).start();
+                com.ahmedmili.thunderbgservice.metrics.MemoryGauges.getInstance(this).start();
             } else if (ACTION_STOP.equals(action)) { 
                 stopHeartbeat(); 
+                notificationHelper.cancelPendingUpdates();
                 BackgroundTaskManager.stopAll(this);
                 stopForegroundInternal(); 
                 locationHelper.stop(); 
                 
                 // Enregistrer l'arrêt du service dans les métriques
                 com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics.getInstance(this).stopServiceTracking();
+                com.ahmedmili.thunderbgservice.metrics.OpenMetricsExporter.getInstance(this).stop();
+                com.ahmedmili.thunderbgservice.metrics.EnergyModel.getInstance(this).stop();
+                com.ahmedmili.thunderbgservice.metrics.MemoryGauges.getInstance(this).stop();
                 
                 // Nettoyer l'état
                 android.content.SharedPreferences prefs = getApplicationContext().getSharedPreferences(PREFS_SERVICE, Context.MODE_PRIVATE);
@@ -153,10 +179,10 @@ public class ForegroundTaskService extends Service {
                 }
                 String viewDataJson = intent.getStringExtra(EXTRA_VIEW_DATA_JSON);
                 String buttonsJson = intent.getStringExtra(EXTRA_BUTTONS_JSON);
-                notificationHelper.updateNotification(intent.getStringExtra(EXTRA_TITLE), intent.getStringExtra(EXTRA_SUBTITLE), null, viewDataJson, buttonsJson);
-                
-                // Enregistrer la mise à jour de notification dans les métriques
-                com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics.getInstance(this).recordNotificationUpdate();
+                // Fusionnée avec les mises à jour rapprochées puis rendue au débit maximal configuré;
+                // latences par étape enregistrées par NotificationHelper
+                notificationHelper.submitUpdate(intent.getStringExtra(EXTRA_TITLE), intent.getStringExtra(EXTRA_SUBTITLE), null, viewDataJson, buttonsJson,
+                        intent.getLongExtra(EXTRA_UPDATE_REQUESTED_AT, 0L));
                 // Persister la mise à jour partielle
                 android.content.SharedPreferences prefs = getApplicationContext().getSharedPreferences(PREFS_SERVICE, Context.MODE_PRIVATE);
                 android.content.SharedPreferences.Editor ed = prefs.edit();
@@ -199,6 +225,7 @@ public class ForegroundTaskService extends Service {
 
     @Override public void onTaskRemoved(Intent rootIntent) {
         // Redémarre le service après un swipe-kill du task
+        StartupTimer.getInstance(this).markTaskRemoved();
         Intent restartIntent = new Intent(getApplicationContext(), ForegroundTaskService.class);
         restartIntent.setAction(ACTION_START);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -209,7 +236,7 @@ public class ForegroundTaskService extends Service {
         super.onTaskRemoved(rootIntent);
     }
 
-    @Override public void onDestroy() { stopHeartbeat(); super.onDestroy(); }
+    @Override public void onDestroy() { stopHeartbeat(); notificationHelper.cancelPendingUpdates(); com.ahmedmili.thunderbgservice.metrics.OpenMetricsExporter.getInstance(this).stop(); PerformanceMetrics.getInstance(this).flush(); super.onDestroy(); }
 
     @Override public IBinder onBind(Intent intent) { return null; }
 
@@ -230,7 +257,7 @@ public class ForegroundTaskService extends Service {
 
     private void startHeartbeat() {
         if (scheduler != null) return;
-        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler = InstrumentedExecutors.newScheduledThreadPool("heartbeat", 1);
         scheduler.scheduleAtFixedRate(() -> {
             int n = heartbeat.incrementAndGet();
             long now = System.currentTimeMillis();
@@ -9,9 +9,20 @@ import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
+import com.ahmedmili.thunderbgservice.tasks.BackpressurePolicy;
+import com.ahmedmili.thunderbgservice.tasks.ChangeDetector;
+import com.ahmedmili.thunderbgservice.tasks.TaskEventEmitter;
+import com.ahmedmili.thunderbgservice.tasks.TaskEventOutbox;
+import com.ahmedmili.thunderbgservice.tasks.TaskEventSubscriptions;
 import com.ahmedmili.thunderbgservice.tasks.TaskResultStorage;
 import com.ahmedmili.thunderbgservice.geofencing.GeofenceManager;
+import com.ahmedmili.thunderbgservice.helpers.NotificationCoalescer;
+import com.ahmedmili.thunderbgservice.metrics.MemoryGauges;
+import com.ahmedmili.thunderbgservice.metrics.MetricsStream;
+import com.ahmedmili.thunderbgservice.metrics.OpenMetricsExporter;
 import com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics;
+import com.ahmedmili.thunderbgservice.metrics.RegressionDetector;
+import com.ahmedmili.thunderbgservice.metrics.Tracer;
 import com.ahmedmili.thunderbgservice.theme.ThemeManager;
 import com.ahmedmili.thunderbgservice.theme.ThemeConfig;
 
@@ -25,6 +36,10 @@ public class ThunderBgServicePlugin extends Plugin {
         super.load();
         instance = this;
         geofenceManager = new GeofenceManager(getContext());
+        // Nouvelle session JS: les intérêts déclarés précédemment ne sont plus valides
+        TaskEventSubscriptions.clear();
+        // Rejouer les événements de tâches émis pendant l'absence de la couche JS
+        TaskEventOutbox.getInstance(getContext()).replay(this);
     }
     
     public static ThunderBgServicePlugin getInstance() {
@@ -39,6 +54,20 @@ public class ThunderBgServicePlugin extends Plugin {
         notifyListeners(eventName, data);
     }
     
+    /**
+     * Variante permettant de retenir l'événement jusqu'à l'ajout d'un listener JS.
+     */
+    public void emitTaskEvent(String eventName, JSObject data, boolean retainUntilConsumed) {
+        notifyListeners(eventName, data, retainUntilConsumed);
+    }
+    
+    /**
+     * Indique si JS écoute un événement (utilisé pour arrêter les diffusions sans destinataire).
+     */
+    public boolean hasEventListeners(String eventName) {
+        return hasListeners(eventName);
+    }
+    
     @PluginMethod
     public void start(PluginCall call) {
         // S'assurer que l'instance est stockée
@@ -54,6 +83,8 @@ public class ThunderBgServicePlugin extends Plugin {
         if (subtitle != null) extras.putExtra(EXTRA_SUBTITLE, subtitle);
         extras.putExtra(EXTRA_ENABLE_LOCATION, enableLocation);
         extras.putExtra(EXTRA_SOUNDS, soundsEnabled);
+        extras.putExtra(EXTRA_TIMER_MODE, call.getString("timerMode", TIMER_MODE_NONE));
+        extras.putExtra(EXTRA_HEARTBEAT, call.getBoolean("heartbeat", true));
         // Optional custom layout from JS
         String customLayout = call.getString("customLayout", null);
         String titleViewId = call.getString("titleViewId", null);
@@ -87,6 +118,7 @@ public class ThunderBgServicePlugin extends Plugin {
     @PluginMethod
     public void update(PluginCall call) {
         Intent extras = new Intent();
+        extras.putExtra(EXTRA_UPDATE_REQUESTED_AT, android.os.SystemClock.elapsedRealtimeNanos());
         if (call.hasOption("notificationTitle")) { String v = call.getString("notificationTitle"); if (v != null) extras.putExtra(EXTRA_TITLE, v); }
         if (call.hasOption("notificationSubtitle")) { String v = call.getString("notificationSubtitle"); if (v != null) extras.putExtra(EXTRA_SUBTITLE, v); }
         // Optional: change layout dynamically
@@ -182,6 +214,88 @@ public class ThunderBgServicePlugin extends Plugin {
         }
     }
     
+    @PluginMethod
+    public void ackTaskEvents(PluginCall call) {
+        Long upToSeq = call.getLong("upToSeq");
+        if (upToSeq == null || upToSeq < 0) {
+            call.reject("upToSeq is required");
+            return;
+        }
+        
+        TaskEventOutbox.getInstance(getContext()).acknowledge(upToSeq);
+        
+        JSObject ret = new JSObject();
+        ret.put("acknowledged", true);
+        call.resolve(ret);
+    }
+    
+    @PluginMethod
+    public void configureTaskEvents(PluginCall call) {
+        String taskId = call.getString("taskId", "");
+        if (taskId.isEmpty()) {
+            call.reject("taskId is required");
+            return;
+        }
+        
+        if (call.hasOption("backpressure")) {
+            BackpressurePolicy policy = BackpressurePolicy.fromString(call.getString("backpressure"));
+            int capacity = call.getInt("capacity", 0);
+            long sampleIntervalMs = call.getLong("sampleIntervalMs", 0L);
+            double maxEventsPerSecond = call.getDouble("maxEventsPerSecond", 0.0);
+            TaskEventEmitter.setBackpressure(getContext(), taskId, policy, capacity, sampleIntervalMs, maxEventsPerSecond);
+        }
+        if (call.hasOption("emitOnChange")) {
+            boolean emitOnChange = call.getBoolean("emitOnChange", false);
+            boolean deltaOnly = call.getBoolean("deltaOnly", false);
+            ChangeDetector.setEmitOnChange(getContext(), taskId, emitOnChange, deltaOnly);
+        }
+        
+        JSObject ret = new JSObject();
+        ret.put("configured", true);
+        call.resolve(ret);
+    }
+    
+    @PluginMethod
+    public void subscribeTaskEvents(PluginCall call) {
+        java.util.List<String> taskIds = getStringList(call, "taskIds");
+        java.util.List<String> patterns = getStringList(call, "patterns");
+        if (taskIds.isEmpty() && patterns.isEmpty()) {
+            call.reject("taskIds or patterns is required");
+            return;
+        }
+        
+        TaskEventSubscriptions.subscribe(taskIds, patterns);
+        
+        JSObject ret = new JSObject();
+        ret.put("subscribed", true);
+        call.resolve(ret);
+    }
+    
+    @PluginMethod
+    public void unsubscribeTaskEvents(PluginCall call) {
+        if (call.getBoolean("all", false)) {
+            TaskEventSubscriptions.clear();
+        } else {
+            TaskEventSubscriptions.unsubscribe(getStringList(call, "taskIds"), getStringList(call, "patterns"));
+        }
+        
+        JSObject ret = new JSObject();
+        ret.put("unsubscribed", true);
+        call.resolve(ret);
+    }
+    
+    private static java.util.List<String> getStringList(PluginCall call, String key) {
+        java.util.List<String> result = new java.util.ArrayList<>();
+        com.getcapacitor.JSArray array = call.getArray(key, null);
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                String value = array.optString(i, null);
+                if (value != null && !value.isEmpty()) result.add(value);
+            }
+        }
+        return result;
+    }
+    
     @PluginMethod
     public void addGeofence(PluginCall call) {
         try {
@@ -253,7 +367,21 @@ public class ThunderBgServicePlugin extends Plugin {
     public void getMetrics(PluginCall call) {
         try {
             PerformanceMetrics metrics = PerformanceMetrics.getInstance(getContext());
-            org.json.JSONObject metricsJson = metrics.getMetricsAsJson();
+            String window = call.getString("window");
+            if (window != null && !metrics.hasWindow(window)) {
+                call.reject("Unknown metrics window: " + window + " (expected 1m, 5m or 1h)");
+                return;
+            }
+            String groupBy = call.getString("groupBy");
+            if (groupBy != null && !"state".equals(groupBy)) {
+                call.reject("Unknown metrics groupBy: " + groupBy + " (expected state)");
+                return;
+            }
+            org.json.JSONObject metricsJson = metrics.getMetricsAsJson(window);
+            if (groupBy != null) {
+                metricsJson.put("currentState", metrics.getCurrentState().getValue());
+                metricsJson.put("byState", metrics.getStateBreakdown());
+            }
             
             JSObject ret = new JSObject();
             // Convertir JSONObject en JSObject
@@ -275,6 +403,38 @@ public class ThunderBgServicePlugin extends Plugin {
         }
     }
     
+    @PluginMethod
+    public void subscribeMetrics(PluginCall call) {
+        java.util.List<String> fields = getStringList(call, "fields");
+        long interval = MetricsStream.getInstance(getContext()).subscribe(
+            call.getLong("intervalMs", MetricsStream.DEFAULT_INTERVAL_MS),
+            new java.util.HashSet<>(fields));
+        
+        JSObject ret = new JSObject();
+        ret.put("subscribed", true);
+        ret.put("intervalMs", interval);
+        call.resolve(ret);
+    }
+    
+    @PluginMethod
+    public void unsubscribeMetrics(PluginCall call) {
+        MetricsStream.getInstance(getContext()).unsubscribe();
+        
+        JSObject ret = new JSObject();
+        ret.put("unsubscribed", true);
+        call.resolve(ret);
+    }
+    
+    @PluginMethod
+    public void configurePerformanceAlerts(PluginCall call) {
+        try {
+            org.json.JSONObject config = RegressionDetector.getInstance(getContext()).configure(call.getData());
+            call.resolve(JSObject.fromJSONObject(config));
+        } catch (Exception e) {
+            call.reject("Error configuring performance alerts: " + e.getMessage());
+        }
+    }
+    
     @PluginMethod
     public void resetMetrics(PluginCall call) {
         com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics
@@ -286,6 +446,78 @@ public class ThunderBgServicePlugin extends Plugin {
         call.resolve(ret);
     }
     
+    @PluginMethod
+    public void configureMetricsExport(PluginCall call) {
+        try {
+            org.json.JSONObject status = OpenMetricsExporter.getInstance(getContext()).configure(
+                call.getBoolean("file", false),
+                call.getLong("fileIntervalMs", OpenMetricsExporter.DEFAULT_FILE_INTERVAL_MS),
+                call.getBoolean("http", false),
+                call.getInt("port", OpenMetricsExporter.DEFAULT_PORT));
+            call.resolve(JSObject.fromJSONObject(status));
+        } catch (Exception e) {
+            call.reject("Error configuring metrics export: " + e.getMessage());
+        }
+    }
+    
+    @PluginMethod
+    public void exportMetrics(PluginCall call) {
+        JSObject ret = new JSObject();
+        ret.put("text", OpenMetricsExporter.getInstance(getContext()).render());
+        call.resolve(ret);
+    }
+    
+    @PluginMethod
+    public void configureMemoryMetrics(PluginCall call) {
+        MemoryGauges gauges = MemoryGauges.getInstance(getContext());
+        long interval = gauges.setInterval(call.getLong("sampleIntervalMs", MemoryGauges.DEFAULT_INTERVAL_MS));
+        
+        JSObject ret = new JSObject();
+        ret.put("sampleIntervalMs", interval);
+        call.resolve(ret);
+    }
+    
+    @PluginMethod
+    public void configureNotificationUpdates(PluginCall call) {
+        double rate = call.getDouble("maxUpdatesPerSecond", NotificationCoalescer.getMaxUpdatesPerSecond(getContext()));
+        
+        JSObject ret = new JSObject();
+        ret.put("maxUpdatesPerSecond", NotificationCoalescer.setMaxUpdatesPerSecond(getContext(), rate));
+        call.resolve(ret);
+    }
+    
+    @PluginMethod
+    public void setTracing(PluginCall call) {
+        Tracer.setEnabled(call.getBoolean("enabled", false),
+            call.getInt("capacity", Tracer.getCapacity()));
+        if (call.getBoolean("clear", false)) {
+            Tracer.clear();
+        }
+        
+        JSObject ret = new JSObject();
+        ret.put("enabled", Tracer.isEnabled());
+        ret.put("capacity", Tracer.getCapacity());
+        call.resolve(ret);
+    }
+    
+    @PluginMethod
+    public void dumpTrace(PluginCall call) {
+        try {
+            JSObject ret = new JSObject();
+            ret.put("eventCount", Tracer.getEventCount());
+            ret.put("path", Tracer.dumpToFile(getContext()).getAbsolutePath());
+            if (call.getBoolean("includeTrace", false)) {
+                ret.put("trace", JSObject.fromJSONObject(Tracer.toTraceJson()));
+            }
+            if (call.getBoolean("clear", false)) {
+                Tracer.clear();
+            }
+            call.resolve(ret);
+        } catch (Exception e) {
+            call.reject("Error dumping trace: " + e.getMessage());
+        }
+    }
+    
     @PluginMethod
     public void setTheme(PluginCall call) {
         String themeName = call.getString("themeName", "default");
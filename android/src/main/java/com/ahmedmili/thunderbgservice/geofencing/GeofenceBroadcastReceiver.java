@@ -17,6 +17,17 @@ public class GeofenceBroadcastReceiver extends BroadcastReceiver {
     
     @Override
     public void onReceive(Context context, Intent intent) {
+        long span = com.ahmedmili.thunderbgservice.metrics.Tracer.begin("geofence.receive");
+        try {
+            handleGeofenceEvent(context, intent);
+        } finally {
+            com.ahmedmili.thunderbgservice.metrics.Tracer.end(span);
+        }
+    }
+    
+    private void handleGeofenceEvent(Context context, Intent intent) {
+        long startTime = System.nanoTime();
+        long startCpu = android.os.Debug.threadCpuTimeNanos();
         GeofencingEvent event = GeofencingEvent.fromIntent(intent);
         
         if (event.hasError()) {
@@ -70,6 +81,17 @@ public class GeofenceBroadcastReceiver extends BroadcastReceiver {
                 Log.i(TAG, "Geofence event: " + eventType + " -> " + action + " (id: " + geofence.getRequestId() + ")");
             }
         }
+        
+        // Attribuer le coût du traitement à parts égales aux géofences déclenchées
+        if (!triggeringGeofences.isEmpty()) {
+            long cpu = (android.os.Debug.threadCpuTimeNanos() - startCpu) / triggeringGeofences.size();
+            long wall = (System.nanoTime() - startTime) / triggeringGeofences.size();
+            com.ahmedmili.thunderbgservice.metrics.EnergyModel energyModel =
+                com.ahmedmili.thunderbgservice.metrics.EnergyModel.getInstance(context);
+            for (Geofence geofence : triggeringGeofences) {
+                energyModel.recordGeofenceExecution(geofence.getRequestId(), cpu, wall);
+            }
+        }
     }
 }
 
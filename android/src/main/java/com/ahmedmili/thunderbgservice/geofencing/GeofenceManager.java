@@ -3,6 +3,7 @@ package com.ahmedmili.thunderbgservice.geofencing;
 import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
+import com.ahmedmili.thunderbgservice.metrics.EnergyModel;
 import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.GeofencingClient;
 import com.google.android.gms.location.GeofencingRequest;
@@ -60,6 +61,7 @@ public class GeofenceManager {
         }
         
         activeGeofences.put(config.id, config);
+        EnergyModel.getInstance(context).setGeofenceMonitored(config.id, true);
         
         Geofence geofence = new Geofence.Builder()
             .setRequestId(config.id)
@@ -101,6 +103,7 @@ public class GeofenceManager {
         geofencingClient.removeGeofences(ids)
             .addOnSuccessListener(aVoid -> {
                 activeGeofences.remove(geofenceId);
+                EnergyModel.getInstance(context).setGeofenceMonitored(geofenceId, false);
                 Log.i(TAG, "Geofence removed: " + geofenceId);
             })
             .addOnFailureListener(e -> {
@@ -120,6 +123,9 @@ public class GeofenceManager {
         
         geofencingClient.removeGeofences(ids)
             .addOnSuccessListener(aVoid -> {
+                for (String id : ids) {
+                    EnergyModel.getInstance(context).setGeofenceMonitored(id, false);
+                }
                 activeGeofences.clear();
                 Log.i(TAG, "All geofences removed");
             })
@@ -0,0 +1,152 @@
+package com.ahmedmili.thunderbgservice.helpers;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Plan de liaison compilé pour un layout de notification.
+ *
+ * La première mise à jour d'un layout résout les ids des vues de viewData (une fois par nom,
+ * sans passer par ResourceCache et sa clé concaténée) et compile chaque jeu de boutons en
+ * liaisons prêtes à l'emploi (id de vue, PendingIntent). Les mises à jour suivantes ne
+ * fournissent que des valeurs: un jeu de boutons déjà vu n'est ni ré-analysé ni ré-résolu.
+ *
+ * Les plans de boutons sont indexés par leur JSON et bornés (boutons à états: quelques
+ * variantes alternent); ils sont recompilés quand ButtonBindingCache a été vidé.
+ */
+final class BindingPlan {
+    private static final int MAX_BUTTON_PLANS = 8;
+
+    final int layoutId;
+    // Nom de vue -> id résolu (0: vue absente du layout)
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final Map<String, Button[]> buttonPlans =
+        new LinkedHashMap<String, Button[]>(MAX_BUTTON_PLANS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Button[]> eldest) {
+                return size() > MAX_BUTTON_PLANS;
+            }
+        };
+    private int buttonGeneration = ButtonBindingCache.getGeneration();
+    private boolean compiled = false;
+
+    BindingPlan(int layoutId) {
+        this.layoutId = layoutId;
+    }
+
+    /**
+     * Id de la vue, résolu au premier usage du nom dans ce layout.
+     * @return 0 si la vue n'existe pas
+     */
+    int slot(Context context, String viewIdName) {
+        Integer id = slots.get(viewIdName);
+        if (id == null) {
+            String pkg = context.getPackageName();
+            id = ResourceCache.getResourceId(context, viewIdName, "id", pkg);
+            if (id == 0) {
+                // Signalé une seule fois par layout
+                Log.w("ThunderBG", "View ID not found: " + viewIdName + " in package " + pkg);
+            }
+            slots.put(viewIdName, id);
+            compiled = true;
+        }
+        return id;
+    }
+
+    /**
+     * Liaisons du jeu de boutons, compilées au premier usage de ce JSON.
+     */
+    Button[] buttons(Context context, String buttonsJson) {
+        int generation = ButtonBindingCache.getGeneration();
+        if (generation != buttonGeneration) {
+            // PendingIntents recréés par ButtonBindingCache: plans périmés
+            buttonGeneration = generation;
+            buttonPlans.clear();
+        }
+        Button[] plan = buttonPlans.get(buttonsJson);
+        if (plan == null) {
+            plan = compileButtons(context, buttonsJson);
+            buttonPlans.put(buttonsJson, plan);
+            compiled = true;
+        }
+        return plan;
+    }
+
+    private Button[] compileButtons(Context context, String buttonsJson) {
+        if (buttonsJson == null || buttonsJson.isEmpty()) return new Button[0];
+        java.util.List<Button> bindings = new java.util.ArrayList<>();
+        try {
+            JSONArray buttons = new JSONArray(buttonsJson);
+            Log.d("ThunderBG", "Compiling " + buttons.length() + " buttons");
+            for (int i = 0; i < buttons.length(); i++) {
+                JSONObject btn = buttons.getJSONObject(i);
+                String viewIdName = btn.optString("viewId", null);
+                String action = btn.optString("action", null);
+                JSONObject extras = btn.optJSONObject("extras");
+                if (viewIdName == null || action == null) {
+                    Log.w("ThunderBG", "Button missing viewId or action: viewId=" + viewIdName + ", action=" + action);
+                    continue;
+                }
+                int vid = slot(context, viewIdName);
+                if (vid == 0) {
+                    Log.e("ThunderBG", "Button view ID NOT FOUND: " + viewIdName + ". Check your XML layout.");
+                    continue;
+                }
+                // Récepteur et PendingIntent mis en cache (pas d'aller-retour binder si inchangés)
+                PendingIntent pi = ButtonBindingCache.getPendingIntent(context, viewIdName, action, extras);
+                bindings.add(new Button(vid,
+                    new NotificationModel.Click(ButtonBindingCache.key(viewIdName, action, extras), pi)));
+            }
+        } catch (Exception e) {
+            Log.e("ThunderBG", "Failed binding buttons: " + buttonsJson, e);
+        }
+        return bindings.toArray(new Button[0]);
+    }
+
+    /**
+     * @return true si des liaisons ont été résolues ou compilées depuis le dernier appel
+     */
+    boolean takeCompiled() {
+        boolean result = compiled;
+        compiled = false;
+        return result;
+    }
+
+    /**
+     * Vérifie si une valeur est une source d'image (Base64 ou URL). Le premier caractère
+     * écarte le texte ordinaire sans comparer de préfixe.
+     */
+    static boolean isImageSource(String value) {
+        if (value == null || value.length() < 7) return false;
+        switch (value.charAt(0)) {
+            case 'd':
+                return value.startsWith("data:image");
+            case 'b':
+                return value.startsWith("base64,");
+            case 'h':
+                return value.startsWith("https://") || value.startsWith("http://");
+            default:
+                // Ressource drawable non détectée: ce pourrait être un nom de TextView
+                return false;
+        }
+    }
+
+    /**
+     * Liaison de bouton compilée: vue cible et clic.
+     */
+    static final class Button {
+        final int viewId;
+        final NotificationModel.Click click;
+
+        Button(int viewId, NotificationModel.Click click) {
+            this.viewId = viewId;
+            this.click = click;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.ahmedmili.thunderbgservice.helpers;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ResolveInfo;
+import android.os.PatternMatcher;
+import android.util.Log;
+import androidx.core.content.ContextCompat;
+import org.json.JSONObject;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache des liaisons de boutons de notification.
+ *
+ * Résoudre un bouton coûte plusieurs allers-retours binder (queryBroadcastReceivers, puis
+ * PendingIntent.getBroadcast). Le récepteur résolu est mis en cache par action, le PendingIntent
+ * par (viewId, action, extras). Le requestCode inclut l'empreinte des extras: deux jeux d'extras
+ * d'un même bouton ont chacun leur PendingIntent, sans que FLAG_UPDATE_CURRENT n'écrase l'autre.
+ *
+ * Le cache est vidé quand les composants de l'app changent (ACTION_PACKAGE_CHANGED, par exemple
+ * un récepteur activé ou désactivé) ou qu'elle est remplacée.
+ */
+public class ButtonBindingCache {
+    private static final String TAG = "ButtonBindingCache";
+    private static final int MAX_ENTRIES = 64;
+
+    // Récepteur résolu par action (component null: aucun récepteur, repli sur setPackage)
+    private static final Map<String, Resolution> receivers = new ConcurrentHashMap<>();
+    // PendingIntent par clé (viewId, action, extras)
+    private static final Map<String, PendingIntent> pendingIntents = new ConcurrentHashMap<>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+    // Incrémentée à chaque vidage: les PendingIntents déjà liés sont à recréer
+    private static volatile int generation = 0;
+    private static volatile boolean packageReceiverRegistered = false;
+
+    private static final class Resolution {
+        final ComponentName component;
+
+        Resolution(ComponentName component) {
+            this.component = component;
+        }
+    }
+
+    /**
+     * Clé d'une liaison: (viewId, action, extras tels que transmis par JS).
+     */
+    public static String key(String viewIdName, String action, JSONObject extras) {
+        return viewIdName + '\u0000' + action + '\u0000' + (extras != null ? extras.toString() : "");
+    }
+
+    /**
+     * PendingIntent du bouton, depuis le cache ou créé puis mis en cache.
+     */
+    public static PendingIntent getPendingIntent(Context context, String viewIdName, String action, JSONObject extras) {
+        String key = key(viewIdName, action, extras);
+        PendingIntent cached = pendingIntents.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        registerPackageReceiver(context);
+
+        String pkg = context.getPackageName();
+        Intent intent = new Intent(action);
+        ComponentName component = resolveReceiver(context, action);
+        if (component != null) {
+            // Use explicit component (more reliable than setPackage)
+            intent.setComponent(component);
+        } else {
+            // Fallback: use setPackage (less reliable but better than nothing)
+            intent.setPackage(pkg);
+        }
+        if (extras != null) {
+            try {
+                Iterator<String> keys = extras.keys();
+                while (keys.hasNext()) {
+                    String extraKey = keys.next();
+                    intent.putExtra(extraKey, String.valueOf(extras.get(extraKey)));
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Failed reading button extras for " + viewIdName, e);
+            }
+        }
+
+        // requestCode unique par bouton et jeu d'extras (positif)
+        int requestCode = (viewIdName + action).hashCode() * 31 + (extras != null ? extras.toString().hashCode() : 0);
+        if (requestCode < 0) requestCode = Math.abs(requestCode);
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, requestCode, intent,
+            PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+
+        if (pendingIntents.size() >= MAX_ENTRIES) {
+            pendingIntents.clear();
+        }
+        pendingIntents.put(key, pendingIntent);
+        Log.i(TAG, "Button bound: viewId=" + viewIdName + " -> action=" + action + " (requestCode=" + requestCode + ", component=" + component + ")");
+        return pendingIntent;
+    }
+
+    private static ComponentName resolveReceiver(Context context, String action) {
+        Resolution resolution = receivers.get(action);
+        if (resolution == null) {
+            // Find receiver explicitly for better reliability
+            Intent query = new Intent(action);
+            query.setPackage(context.getPackageName());
+            List<ResolveInfo> found = context.getPackageManager().queryBroadcastReceivers(query, 0);
+            ComponentName component = null;
+            if (found != null && !found.isEmpty()) {
+                ResolveInfo ri = found.get(0);
+                component = new ComponentName(ri.activityInfo.packageName, ri.activityInfo.name);
+            } else {
+                Log.e(TAG, "⚠️ NO RECEIVER FOUND for action=" + action + " in package=" + context.getPackageName() + ". Using setPackage fallback. Check AndroidManifest.xml!");
+            }
+            resolution = new Resolution(component);
+            receivers.put(action, resolution);
+        }
+        return resolution.component;
+    }
+
+    /**
+     * Vide le cache (récepteurs et PendingIntents).
+     */
+    public static void clear() {
+        receivers.clear();
+        pendingIntents.clear();
+        invalidations.incrementAndGet();
+        generation++;
+        Log.i(TAG, "Button binding cache cleared");
+    }
+
+    public static int getGeneration() {
+        return generation;
+    }
+
+    public static JSONObject getStats() throws Exception {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        JSONObject stats = new JSONObject();
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount > 0 ? (double) hitCount / (hitCount + missCount) : 0.0);
+        stats.put("size", pendingIntents.size());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    public static void resetStats() {
+        hits.set(0);
+        misses.set(0);
+        invalidations.set(0);
+    }
+
+    /**
+     * Surveille les changements de composants de l'app (une fois par process).
+     */
+    private static void registerPackageReceiver(Context context) {
+        if (packageReceiverRegistered) return;
+        synchronized (ButtonBindingCache.class) {
+            if (packageReceiverRegistered) return;
+            Context app = context.getApplicationContext();
+            final String pkg = app.getPackageName();
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+            filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            filter.addDataScheme("package");
+            filter.addDataSchemeSpecificPart(pkg, PatternMatcher.PATTERN_LITERAL);
+            try {
+                // Diffusions système: reçues même non exporté
+                ContextCompat.registerReceiver(app, new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context c, Intent intent) {
+                        if (intent.getData() != null && pkg.equals(intent.getData().getSchemeSpecificPart())) {
+                            clear();
+                        }
+                    }
+                }, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+                packageReceiverRegistered = true;
+            } catch (Exception e) {
+                Log.w(TAG, "Cannot watch package changes", e);
+            }
+        }
+    }
+}
@@ -5,13 +5,13 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.Log;
 import android.widget.RemoteViews;
+import com.ahmedmili.thunderbgservice.metrics.InstrumentedExecutors;
+import com.ahmedmili.thunderbgservice.metrics.Tracer;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 /**
  * Helper pour charger et appliquer des images dynamiques dans les notifications.
@@ -22,7 +22,7 @@ public class ImageLoaderHelper {
     
     private static final int MAX_CACHE_SIZE = 50; // Nombre max d'images en cache
     private static final ConcurrentHashMap<String, Bitmap> imageCache = new ConcurrentHashMap<>();
-    private static final ExecutorService executorService = Executors.newFixedThreadPool(3);
+    private static final ExecutorService executorService = InstrumentedExecutors.newFixedThreadPool("imageLoader", 3);
     
     /**
      * Charge une image depuis Base64 ou URL et l'applique à un ImageView dans RemoteViews
@@ -33,6 +33,17 @@ public class ImageLoaderHelper {
      * @param imageSource L'image source (Base64 ou URL)
      */
     public static void loadImage(Context context, RemoteViews views, int imageViewId, String imageSource) {
+        loadImage(context, views, imageViewId, imageSource, null);
+    }
+    
+    /**
+     * Variante pour des RemoteViews déjà transmises (ou sur le point de l'être): une image à
+     * charger en arrière-plan n'est pas appliquée à ces vues mais mise en cache, puis onLoaded
+     * est appelé (depuis le thread de chargement) pour qu'un nouveau rendu la reprenne du cache.
+     * 
+     * @param onLoaded Appelé une fois l'image chargée en cache, null pour l'appliquer à views
+     */
+    public static void loadImage(Context context, RemoteViews views, int imageViewId, String imageSource, Runnable onLoaded) {
         if (imageSource == null || imageSource.isEmpty()) {
             Log.w(TAG, "Image source is null or empty");
             return;
@@ -49,10 +60,10 @@ public class ImageLoaderHelper {
         // Charger l'image
         if (imageSource.startsWith("data:image") || imageSource.startsWith("base64,")) {
             // Base64
-            loadFromBase64(context, views, imageViewId, imageSource);
+            loadFromBase64(context, views, imageViewId, imageSource, onLoaded);
         } else if (imageSource.startsWith("http://") || imageSource.startsWith("https://")) {
             // URL
-            loadFromUrl(context, views, imageViewId, imageSource);
+            loadFromUrl(context, views, imageViewId, imageSource, onLoaded);
         } else {
             // Essayer de le traiter comme un nom de ressource drawable
             loadFromResource(context, views, imageViewId, imageSource);
@@ -62,7 +73,7 @@ public class ImageLoaderHelper {
     /**
      * Charge une image depuis Base64
      */
-    private static void loadFromBase64(Context context, RemoteViews views, int imageViewId, String base64Data) {
+    private static void loadFromBase64(Context context, RemoteViews views, int imageViewId, String base64Data, Runnable onLoaded) {
         executorService.submit(() -> {
             try {
                 // Extraire les données Base64
@@ -71,16 +82,26 @@ public class ImageLoaderHelper {
                     base64 = base64Data.substring(base64Data.indexOf(",") + 1);
                 }
                 
-                byte[] decodedBytes = android.util.Base64.decode(base64, android.util.Base64.DEFAULT);
-                Bitmap bitmap = BitmapFactory.decodeByteArray(decodedBytes, 0, decodedBytes.length);
+                Bitmap bitmap;
+                long span = Tracer.begin("image.decode");
+                try {
+                    byte[] decodedBytes = android.util.Base64.decode(base64, android.util.Base64.DEFAULT);
+                    bitmap = BitmapFactory.decodeByteArray(decodedBytes, 0, decodedBytes.length);
+                } finally {
+                    Tracer.end(span, "base64");
+                }
                 
                 if (bitmap != null) {
                     // Mettre en cache
                     cacheImage(base64Data, bitmap);
                     
-                    // Appliquer à la vue (sur le thread principal)
-                    views.setImageViewBitmap(imageViewId, bitmap);
-                    Log.d(TAG, "Base64 image loaded and applied to viewId: " + imageViewId);
+                    // Appliquer à la vue, ou laisser le prochain rendu la reprendre du cache
+                    if (onLoaded != null) {
+                        onLoaded.run();
+                    } else {
+                        views.setImageViewBitmap(imageViewId, bitmap);
+                    }
+                    Log.d(TAG, "Base64 image loaded for viewId: " + imageViewId);
                 } else {
                     Log.e(TAG, "Failed to decode Base64 image");
                 }
@@ -93,7 +114,7 @@ public class ImageLoaderHelper {
     /**
      * Charge une image depuis une URL
      */
-    private static void loadFromUrl(Context context, RemoteViews views, int imageViewId, String imageUrl) {
+    private static void loadFromUrl(Context context, RemoteViews views, int imageViewId, String imageUrl, Runnable onLoaded) {
         executorService.submit(() -> {
             try {
                 URL url = new URL(imageUrl);
@@ -102,7 +123,13 @@ public class ImageLoaderHelper {
                 connection.connect();
                 
                 InputStream input = connection.getInputStream();
-                Bitmap bitmap = BitmapFactory.decodeStream(input);
+                Bitmap bitmap;
+                long span = Tracer.begin("image.decode");
+                try {
+                    bitmap = BitmapFactory.decodeStream(input);
+                } finally {
+                    Tracer.end(span, "url");
+                }
                 input.close();
                 connection.disconnect();
                 
@@ -110,9 +137,13 @@ public class ImageLoaderHelper {
                     // Mettre en cache
                     cacheImage(imageUrl, bitmap);
                     
-                    // Appliquer à la vue
-                    views.setImageViewBitmap(imageViewId, bitmap);
-                    Log.d(TAG, "URL image loaded and applied to viewId: " + imageViewId);
+                    // Appliquer à la vue, ou laisser le prochain rendu la reprendre du cache
+                    if (onLoaded != null) {
+                        onLoaded.run();
+                    } else {
+                        views.setImageViewBitmap(imageViewId, bitmap);
+                    }
+                    Log.d(TAG, "URL image loaded for viewId: " + imageViewId);
                 } else {
                     Log.e(TAG, "Failed to decode image from URL: " + imageUrl);
                 }
@@ -184,6 +215,19 @@ public class ImageLoaderHelper {
         return imageCache.size();
     }
     
+    /**
+     * Obtient la mémoire occupée par les bitmaps en cache (octets)
+     */
+    public static long getCacheBytes() {
+        long bytes = 0;
+        for (Bitmap bitmap : imageCache.values()) {
+            if (bitmap != null && !bitmap.isRecycled()) {
+                bytes += bitmap.getAllocationByteCount();
+            }
+        }
+        return bytes;
+    }
+    
     /**
      * Charge une image de façon synchrone (pour les cas spéciaux)
      */
@@ -202,8 +246,14 @@ public class ImageLoaderHelper {
             if (imageSource.startsWith("data:image") || imageSource.startsWith("base64,")) {
                 String base64 = imageSource.contains(",") ? 
                     imageSource.substring(imageSource.indexOf(",") + 1) : imageSource;
-                byte[] decodedBytes = android.util.Base64.decode(base64, android.util.Base64.DEFAULT);
-                Bitmap bitmap = BitmapFactory.decodeByteArray(decodedBytes, 0, decodedBytes.length);
+                Bitmap bitmap;
+                long span = Tracer.begin("image.decode");
+                try {
+                    byte[] decodedBytes = android.util.Base64.decode(base64, android.util.Base64.DEFAULT);
+                    bitmap = BitmapFactory.decodeByteArray(decodedBytes, 0, decodedBytes.length);
+                } finally {
+                    Tracer.end(span, "base64");
+                }
                 if (bitmap != null) {
                     cacheImage(imageSource, bitmap);
                 }
@@ -215,7 +265,13 @@ public class ImageLoaderHelper {
                 connection.connect();
                 
                 InputStream input = connection.getInputStream();
-                Bitmap bitmap = BitmapFactory.decodeStream(input);
+                Bitmap bitmap;
+                long span = Tracer.begin("image.decode");
+                try {
+                    bitmap = BitmapFactory.decodeStream(input);
+                } finally {
+                    Tracer.end(span, "url");
+                }
                 input.close();
                 connection.disconnect();
                 
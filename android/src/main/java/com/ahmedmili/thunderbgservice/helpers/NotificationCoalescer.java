@@ -0,0 +1,117 @@
+package com.ahmedmili.thunderbgservice.helpers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import com.ahmedmili.thunderbgservice.metrics.NotificationStage;
+import com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File de rendu des mises à jour de notification, limitée en débit.
+ *
+ * Android ignore les mises à jour d'une app au-delà d'environ 5 par seconde: le travail est
+ * perdu et l'état final peut ne jamais s'afficher. Les mises à jour reçues entre deux rendus
+ * sont fusionnées champ par champ (la dernière valeur fournie l'emporte); le rendu a lieu dès
+ * que le précédent date d'au moins 1/maxUpdatesPerSecond, sinon à la fin de l'intervalle, si
+ * bien que la dernière mise à jour est toujours affichée.
+ *
+ * Utilisée uniquement depuis le thread de rendu de NotificationHelper: aucune synchronisation.
+ */
+public final class NotificationCoalescer {
+    private static final String PREFS_NAME = "thunder_bg_notification";
+    private static final String KEY_MAX_RATE = "max_updates_per_second";
+    public static final double DEFAULT_MAX_UPDATES_PER_SECOND = 5.0;
+    private static final double MAX_UPDATES_PER_SECOND = 60.0;
+
+    // Débit configuré (persisté), chargé au premier usage
+    private static volatile double maxUpdatesPerSecond = -1;
+
+    private final Context context;
+    private final NotificationHelper helper;
+    private final ScheduledExecutorService renderThread;
+    private final Runnable flushRunnable = this::flush;
+
+    // Mise à jour en attente (null: aucune)
+    private NotificationUpdate pending;
+    private ScheduledFuture<?> scheduled;
+    private long pendingSinceNanos;
+    private long lastRenderNanos = 0;
+
+    NotificationCoalescer(Context context, NotificationHelper helper, ScheduledExecutorService renderThread) {
+        this.context = context.getApplicationContext();
+        this.helper = helper;
+        this.renderThread = renderThread;
+    }
+
+    /**
+     * Définit le débit maximal de rendu (0 = aucune limite, les mises à jour simultanées
+     * restent fusionnées).
+     * @return Débit effectif
+     */
+    public static double setMaxUpdatesPerSecond(Context context, double rate) {
+        double effective = rate <= 0 ? 0 : Math.min(MAX_UPDATES_PER_SECOND, rate);
+        prefs(context).edit().putFloat(KEY_MAX_RATE, (float) effective).apply();
+        maxUpdatesPerSecond = effective;
+        return effective;
+    }
+
+    public static double getMaxUpdatesPerSecond(Context context) {
+        double rate = maxUpdatesPerSecond;
+        if (rate < 0) {
+            rate = prefs(context).getFloat(KEY_MAX_RATE, (float) DEFAULT_MAX_UPDATES_PER_SECOND);
+            maxUpdatesPerSecond = rate;
+        }
+        return rate;
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Ajoute une mise à jour; elle est fusionnée avec celle en attente s'il y en a une.
+     */
+    void submit(NotificationUpdate update) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (pending != null) {
+            PerformanceMetrics.getInstance(context).recordNotificationCoalesced();
+            pending = pending.mergedWith(update);
+        } else {
+            pending = update;
+            pendingSinceNanos = now;
+        }
+        if (scheduled != null) return;
+
+        double rate = getMaxUpdatesPerSecond(context);
+        long minIntervalNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+        long waitNanos = lastRenderNanos + minIntervalNanos - now;
+        // Les commandes déjà en file passent avant: elles sont fusionnées dans ce rendu
+        scheduled = renderThread.schedule(flushRunnable,
+            lastRenderNanos == 0 || waitNanos <= 0 ? 0 : waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Abandonne la mise à jour en attente (arrêt du service).
+     */
+    void cancel() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        pending = null;
+    }
+
+    private void flush() {
+        scheduled = null;
+        NotificationUpdate update = pending;
+        if (update == null) return;
+        pending = null;
+        lastRenderNanos = SystemClock.elapsedRealtimeNanos();
+        PerformanceMetrics.getInstance(context).recordNotificationStage(NotificationStage.COALESCE,
+            lastRenderNanos - pendingSinceNanos);
+        helper.renderUpdate(update);
+    }
+}
@@ -3,14 +3,30 @@ package com.ahmedmili.thunderbgservice.helpers;
 import static com.ahmedmili.thunderbgservice.core.FgConstants.*;
 import com.ahmedmili.thunderbgservice.theme.ThemeManager;
 import com.ahmedmili.thunderbgservice.theme.ThemeConfig;
+import com.ahmedmili.thunderbgservice.metrics.EnergyModel;
+import com.ahmedmili.thunderbgservice.metrics.InstrumentedExecutors;
+import com.ahmedmili.thunderbgservice.metrics.NotificationStage;
+import com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics;
+import com.ahmedmili.thunderbgservice.metrics.Tracer;
 
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.RemoteViews;
 import androidx.core.app.NotificationCompat;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Notification du service foreground.
+ *
+ * Tout l'état (layout, ids de vues, modèle, thème, plan de liaison) appartient à un unique
+ * thread de rendu: les méthodes publiques ne font que lui transmettre des commandes immuables
+ * (NotificationUpdate), si bien que ni le thread principal ni les threads des tâches ou du
+ * chargement d'images ne construisent de RemoteViews ni ne touchent à cet état.
+ */
 public class NotificationHelper {
     private final Context context;
     private Integer customLayoutId = null;
@@ -24,12 +40,54 @@ public class NotificationHelper {
     private Integer defaultSubtitleId = null;
     private Integer defaultIconId = null;
 
+    // Dernier état appliqué aux vues (mises à jour incrémentales)
+    private final NotificationModel model = new NotificationModel();
+    // JSON du thème appliqué ("" = aucun thème, null = à réappliquer)
+    private String appliedThemeJson = null;
+    private int boundButtonGeneration = 0;
+    // Ids et boutons résolus pour le layout courant (compilés à la première mise à jour)
+    private BindingPlan bindingPlan = null;
+    private NotificationCompat.Builder updateBuilder = null;
+    // Mesure de la taille sérialisée: première mise à jour puis une sur PARCEL_SAMPLE_EVERY
+    private static final int PARCEL_SAMPLE_EVERY = 16;
+    private int renderCount = 0;
+
+    // Mode chronomètre: base du timer en elapsedRealtime (null: inactif) et début en heure murale
+    private Long chronometerBase = null;
+    private long chronometerStartAtMillis = 0L;
+
+    // Service arrêté: les rendus encore en file sont ignorés
+    private boolean closed = false;
+
+    // Thread de rendu unique, partagé par le process
+    private static ScheduledExecutorService renderThread;
+    private static final long BUILD_TIMEOUT_MS = 2000;
+    private final ScheduledExecutorService render;
+    // Image chargée en arrière-plan: re-rendu (limité en débit) pour l'afficher
+    private final Runnable imageLoaded = this::submitRefresh;
+
+    // Fusion et limitation de débit des mises à jour (submitUpdate)
+    private final NotificationCoalescer coalescer;
+
     public NotificationHelper(Context ctx) { 
         this.context = ctx.getApplicationContext();
+        this.render = renderThread();
+        this.coalescer = new NotificationCoalescer(context, this, render);
         // Résoudre les IDs par défaut une fois
         resolveDefaultResourceIds();
     }
     
+    private static synchronized ScheduledExecutorService renderThread() {
+        if (renderThread == null) {
+            renderThread = InstrumentedExecutors.newScheduledThreadPool("notificationRender", 1);
+        }
+        return renderThread;
+    }
+
+    private void submitRefresh() {
+        render.execute(() -> coalescer.submit(NotificationUpdate.refresh()));
+    }
+
     private void resolveDefaultResourceIds() {
         String pkg = context.getPackageName();
         String pluginPkg = "com.ahmedmili.thunderbgservice"; // Package du plugin
@@ -59,13 +117,29 @@ public class NotificationHelper {
         }
     }
 
+    /**
+     * Change de layout personnalisé (ids résolus sur le thread de rendu).
+     */
     public void setCustomLayout(String layoutName, String titleViewIdName, String subtitleViewIdName, String timerViewIdName) {
+        render.execute(() -> applyCustomLayout(layoutName, titleViewIdName, subtitleViewIdName, timerViewIdName));
+    }
+
+    private void applyCustomLayout(String layoutName, String titleViewIdName, String subtitleViewIdName, String timerViewIdName) {
         String pkg = context.getPackageName();
         // Utiliser ResourceCache pour améliorer les performances
         int layoutId = ResourceCache.getResourceId(context, layoutName, "layout", pkg);
         int tId = titleViewIdName != null ? ResourceCache.getResourceId(context, titleViewIdName, "id", pkg) : 0;
         int sId = subtitleViewIdName != null ? ResourceCache.getResourceId(context, subtitleViewIdName, "id", pkg) : 0;
         int tmId = timerViewIdName != null ? ResourceCache.getResourceId(context, timerViewIdName, "id", pkg) : 0;
+        if (!java.util.Objects.equals(customLayoutId, layoutId != 0 ? layoutId : null)
+                || !java.util.Objects.equals(titleViewId, tId != 0 ? tId : null)
+                || !java.util.Objects.equals(subtitleViewId, sId != 0 ? sId : null)
+                || !java.util.Objects.equals(timerViewId, tmId != 0 ? tmId : null)) {
+            // Vues différentes: l'état mémorisé n'est plus valable
+            model.reset();
+            appliedThemeJson = null;
+            bindingPlan = null;
+        }
         this.customLayoutId = layoutId != 0 ? layoutId : null;
         this.titleViewId = tId != 0 ? tId : null;
         this.subtitleViewId = sId != 0 ? sId : null;
@@ -73,54 +147,81 @@ public class NotificationHelper {
         Log.i("ThunderBG", "setCustomLayout layout=" + layoutName + " -> id=" + this.customLayoutId + ", titleId=" + this.titleViewId + ", subtitleId=" + this.subtitleViewId + ", timerId=" + this.timerViewId);
     }
 
+    /**
+     * Mode chronomètre: le timer compte depuis startAtMillis et est dessiné par le système
+     * (Chronometer de timerViewId, sinon chronomètre de l'en-tête), sans aucune mise à jour de
+     * la notification ni réveil du service.
+     * @param startAtMillis Début du timer (System.currentTimeMillis()), 0 pour désactiver
+     */
+    public void setChronometer(long startAtMillis) {
+        // Calculée une fois: une base stable laisse le modèle ignorer les mises à jour suivantes
+        Long base = startAtMillis > 0
+            ? SystemClock.elapsedRealtime() - (System.currentTimeMillis() - startAtMillis) : null;
+        render.execute(() -> {
+            chronometerBase = base;
+            chronometerStartAtMillis = base != null ? startAtMillis : 0L;
+        });
+    }
+
+    /**
+     * Chronomètre d'en-tête quand aucune vue timer ne l'affiche
+     */
+    private void applyHeaderChronometer(NotificationCompat.Builder b) {
+        boolean header = chronometerBase != null && (customLayoutId == null || timerViewId == null);
+        b.setUsesChronometer(header);
+        if (header) b.setWhen(chronometerStartAtMillis);
+    }
+
     public Notification buildNotification(String title, String subtitle, boolean sounds) {
+        return buildNotification(title, subtitle, sounds, null, null);
+    }
+
+    /**
+     * Notification de startForeground(), construite sur le thread de rendu; l'appelant attend
+     * au plus BUILD_TIMEOUT_MS, puis se contente d'une notification sans vue personnalisée.
+     */
+    public Notification buildNotification(String title, String subtitle, boolean sounds, String viewDataJson, String buttonsJson) {
+        java.util.concurrent.Future<Notification> built =
+            render.submit(() -> build(title, subtitle, sounds, viewDataJson, buttonsJson));
+        try {
+            return built.get(BUILD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            Log.w("ThunderBG", "Notification not built in " + BUILD_TIMEOUT_MS + "ms, posting plain notification", e);
+            // La vue personnalisée suivra dès que le thread de rendu aura construit l'état
+            render.execute(() -> renderUpdate(NotificationUpdate.refresh()));
+            NotificationCompat.Builder b = baseBuilder(title, subtitle);
+            if (sounds) b.setDefaults(NotificationCompat.DEFAULT_ALL);
+            return b.build();
+        }
+    }
+
+    private Notification build(String title, String subtitle, boolean sounds, String viewDataJson, String buttonsJson) {
+        closed = false;
         RemoteViews views = null;
         if (customLayoutId != null) {
-            views = new RemoteViews(context.getPackageName(), customLayoutId);
-            if (titleViewId != null && title != null) views.setTextViewText(titleViewId, title);
-            if (subtitleViewId != null && subtitle != null) views.setTextViewText(subtitleViewId, subtitle);
+            // Nouvelle notification: l'état mémorisé repart de zéro
+            model.reset();
+            appliedThemeJson = null;
+            updateModel(title, subtitle, null, viewDataJson, buttonsJson);
+            model.takeChanges();
+            views = model.render(context, imageLoaded);
         }
-        PendingIntent contentIntent = PendingIntent.getActivity(context, 0,
-                context.getPackageManager().getLaunchIntentForPackage(context.getPackageName()),
-                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
-        NotificationCompat.Builder b = new NotificationCompat.Builder(context, CHANNEL_ID_FOREGROUND)
-                .setSmallIcon(defaultIconId)
-                .setContentTitle(title)
-                .setContentText(subtitle)
-                .setContentIntent(contentIntent)
-                .setOngoing(true)
-                .setOnlyAlertOnce(true)
-                .setPriority(NotificationCompat.PRIORITY_DEFAULT)
-                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
-                .setShowWhen(true)
-                .setCategory(NotificationCompat.CATEGORY_SERVICE);
+
+        NotificationCompat.Builder b = baseBuilder(title, subtitle);
         if (views != null) {
             b.setCustomContentView(views).setCustomBigContentView(views).setStyle(new NotificationCompat.DecoratedCustomViewStyle());
         }
+        applyHeaderChronometer(b);
         if (sounds) b.setDefaults(NotificationCompat.DEFAULT_ALL);
         return b.build();
     }
-    
-    public Notification buildNotification(String title, String subtitle, boolean sounds, String viewDataJson, String buttonsJson) {
-        RemoteViews views = null;
-        if (customLayoutId != null) {
-            views = new RemoteViews(context.getPackageName(), customLayoutId);
-        }
-        // Apply base fields
-        if (views != null) {
-            if (titleViewId != null && title != null) views.setTextViewText(titleViewId, title);
-            if (subtitleViewId != null && subtitle != null) views.setTextViewText(subtitleViewId, subtitle);
-            
-            // Appliquer le thème
-            applyTheme(views);
-        }
-        // Dynamic bindings
-        if (views != null) applyDynamicBindings(views, viewDataJson, buttonsJson);
 
+    private NotificationCompat.Builder baseBuilder(String title, String subtitle) {
         PendingIntent contentIntent = PendingIntent.getActivity(context, 0,
                 context.getPackageManager().getLaunchIntentForPackage(context.getPackageName()),
                 PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
-        NotificationCompat.Builder b = new NotificationCompat.Builder(context, CHANNEL_ID_FOREGROUND)
+        return new NotificationCompat.Builder(context, CHANNEL_ID_FOREGROUND)
                 .setSmallIcon(defaultIconId)
                 .setContentTitle(title)
                 .setContentText(subtitle)
@@ -131,257 +232,271 @@ public class NotificationHelper {
                 .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
                 .setShowWhen(true)
                 .setCategory(NotificationCompat.CATEGORY_SERVICE);
-        if (views != null) {
-            b.setCustomContentView(views).setCustomBigContentView(views).setStyle(new NotificationCompat.DecoratedCustomViewStyle());
-        }
-        if (sounds) b.setDefaults(NotificationCompat.DEFAULT_ALL);
-        return b.build();
     }
+
     public void updateNotification(String title, String subtitle) {
         updateNotification(title, subtitle, null);
     }
 
     public void updateNotification(String title, String subtitle, String timerText) {
-        RemoteViews views = null;
-        if (customLayoutId != null) {
-            views = new RemoteViews(context.getPackageName(), customLayoutId);
-            if (titleViewId != null && title != null) views.setTextViewText(titleViewId, title);
-            if (subtitleViewId != null && subtitle != null) views.setTextViewText(subtitleViewId, subtitle);
-            if (timerViewId != null && timerText != null) views.setTextViewText(timerViewId, timerText);
-        }
-        NotificationCompat.Builder b = new NotificationCompat.Builder(context, CHANNEL_ID_FOREGROUND)
-                .setSmallIcon(defaultIconId)
-                .setOngoing(true)
-                .setOnlyAlertOnce(true)
-                .setPriority(NotificationCompat.PRIORITY_DEFAULT)
-                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
-                .setShowWhen(true)
-                .setCategory(NotificationCompat.CATEGORY_SERVICE);
-        if (views != null) {
-            b.setCustomContentView(views).setCustomBigContentView(views).setStyle(new NotificationCompat.DecoratedCustomViewStyle());
-        }
-        androidx.core.app.NotificationManagerCompat.from(context)
-                .notify(NOTIFICATION_ID_FOREGROUND, b.build());
+        updateNotification(title, subtitle, timerText, null, null, 0L);
     }
 
     public void updateNotification(String title, String subtitle, String timerText, String viewDataJson, String buttonsJson) {
-        RemoteViews views = null;
-        if (customLayoutId != null) {
-            views = new RemoteViews(context.getPackageName(), customLayoutId);
+        updateNotification(title, subtitle, timerText, viewDataJson, buttonsJson, 0L);
+    }
+
+    /**
+     * Met à jour la notification sans fusion ni limitation de débit, en mesurant chaque étape
+     * (voir NotificationStage). Le rendu a lieu sur le thread de rendu.
+     * @param requestedAtNanos SystemClock.elapsedRealtimeNanos() à l'appel update() côté plugin, 0 si inconnu
+     */
+    public void updateNotification(String title, String subtitle, String timerText, String viewDataJson, String buttonsJson, long requestedAtNanos) {
+        recordDispatch(requestedAtNanos);
+        NotificationUpdate update = new NotificationUpdate(title, subtitle, timerText, viewDataJson, buttonsJson, requestedAtNanos);
+        render.execute(() -> renderUpdate(update));
+    }
+
+    /**
+     * Met à jour la notification via la file de rendu: les mises à jour rapprochées sont
+     * fusionnées et le débit limité (voir NotificationCoalescer).
+     * @param requestedAtNanos SystemClock.elapsedRealtimeNanos() à l'appel update() côté plugin, 0 si inconnu
+     */
+    public void submitUpdate(String title, String subtitle, String timerText, String viewDataJson, String buttonsJson, long requestedAtNanos) {
+        recordDispatch(requestedAtNanos);
+        NotificationUpdate update = new NotificationUpdate(title, subtitle, timerText, viewDataJson, buttonsJson, requestedAtNanos);
+        render.execute(() -> coalescer.submit(update));
+    }
+
+    /**
+     * Abandonne la mise à jour en attente de rendu et ignore les suivantes jusqu'au prochain
+     * buildNotification() (arrêt du service).
+     */
+    public void cancelPendingUpdates() {
+        render.execute(() -> {
+            closed = true;
+            coalescer.cancel();
+        });
+    }
+
+    private void recordDispatch(long requestedAtNanos) {
+        if (requestedAtNanos > 0) {
+            PerformanceMetrics.getInstance(context).recordNotificationStage(NotificationStage.DISPATCH,
+                SystemClock.elapsedRealtimeNanos() - requestedAtNanos);
         }
-        if (views != null) {
-            if (titleViewId != null && title != null) views.setTextViewText(titleViewId, title);
-            if (subtitleViewId != null && subtitle != null) views.setTextViewText(subtitleViewId, subtitle);
-            if (timerViewId != null && timerText != null) views.setTextViewText(timerViewId, timerText);
-            
-            // Appliquer le thème
-            applyTheme(views);
-            
-            applyDynamicBindings(views, viewDataJson, buttonsJson);
+    }
+
+    /**
+     * Rendu d'une mise à jour, sur le thread de rendu. Seules les valeurs qui diffèrent du
+     * dernier état appliqué sont ré-analysées et ré-résolues; les champs null gardent leur
+     * valeur précédente, et rien n'est envoyé si rien n'a changé (sauf rendu forcé).
+     */
+    void renderUpdate(NotificationUpdate update) {
+        if (closed) return;
+        PerformanceMetrics metrics = PerformanceMetrics.getInstance(context);
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        long startCpu = android.os.Debug.threadCpuTimeNanos();
+
+        // -1: pas de layout personnalisé (notification sans RemoteViews)
+        int changes = customLayoutId != null
+            ? updateModel(update.title, update.subtitle, update.timerText, update.viewDataJson, update.buttonsJson) : -1;
+        long parsedAt = SystemClock.elapsedRealtimeNanos();
+        metrics.recordNotificationStage(NotificationStage.PARSE, parsedAt - startedAt);
+        if (changes == 0 && !update.refresh) {
+            // Rien n'a changé: ni reconstruction ni appel à notify()
+            metrics.recordNotificationSkipped();
+            return;
         }
 
-        NotificationCompat.Builder b = new NotificationCompat.Builder(context, CHANNEL_ID_FOREGROUND)
-                .setSmallIcon(defaultIconId)
-                .setOngoing(true)
-                .setOnlyAlertOnce(true)
-                .setPriority(NotificationCompat.PRIORITY_DEFAULT)
-                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
-                .setShowWhen(true)
-                .setCategory(NotificationCompat.CATEGORY_SERVICE);
-        if (views != null) {
-            b.setCustomContentView(views).setCustomBigContentView(views).setStyle(new NotificationCompat.DecoratedCustomViewStyle());
+        RemoteViews views = changes >= 0 ? model.render(context, imageLoaded) : null;
+        NotificationCompat.Builder b = updateBuilder();
+        // Vue étendue omise: DecoratedCustomViewStyle reprend la vue compacte, les RemoteViews
+        // ne sont ainsi sérialisées qu'une fois
+        b.setCustomContentView(views).setStyle(views != null ? new NotificationCompat.DecoratedCustomViewStyle() : null);
+        applyHeaderChronometer(b);
+        Notification notification = b.build();
+        long builtAt = SystemClock.elapsedRealtimeNanos();
+        metrics.recordNotificationStage(NotificationStage.BUILD, builtAt - parsedAt);
+        metrics.recordNotificationRender(Math.max(changes, 0), model.size());
+        if (renderCount++ % PARCEL_SAMPLE_EVERY == 0) {
+            measureParcel(metrics, notification);
         }
+
         androidx.core.app.NotificationManagerCompat.from(context)
-                .notify(NOTIFICATION_ID_FOREGROUND, b.build());
+                .notify(NOTIFICATION_ID_FOREGROUND, notification);
+        long notifiedAt = SystemClock.elapsedRealtimeNanos();
+        metrics.recordNotificationStage(NotificationStage.NOTIFY, notifiedAt - builtAt);
+        metrics.recordNotificationStage(NotificationStage.TOTAL,
+            notifiedAt - (update.requestedAtNanos > 0 ? update.requestedAtNanos : startedAt));
         
         // Enregistrer la mise à jour dans les métriques
-        try {
-            com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics.getInstance(context)
-                .recordNotificationUpdate();
-        } catch (Exception ignored) {}
+        metrics.recordNotificationUpdate();
+        EnergyModel.getInstance(context).recordExecution(EnergyModel.COMPONENT_NOTIFICATION,
+            android.os.Debug.threadCpuTimeNanos() - startCpu, notifiedAt - startedAt);
     }
 
-    private void applyDynamicBindings(RemoteViews views, String viewDataJson, String buttonsJson) {
-        String pkg = context.getPackageName();
-        // Text bindings and image bindings
-        if (viewDataJson != null && !viewDataJson.isEmpty()) {
-            try {
-                org.json.JSONObject obj = new org.json.JSONObject(viewDataJson);
-                java.util.Iterator<String> keys = obj.keys();
-                while (keys.hasNext()) {
-                    String viewIdName = keys.next();
-                    // Utiliser ResourceCache pour améliorer les performances
-                    int id = ResourceCache.getResourceId(context, viewIdName, "id", pkg);
-                    if (id != 0) {
-                        Object value = obj.get(viewIdName);
-                        String valueStr = String.valueOf(value);
-                        
-                        // Détecter si c'est une image (Base64, URL, ou ressource)
-                        if (isImageSource(valueStr)) {
-                            // C'est une image
-                            ImageLoaderHelper.loadImage(context, views, id, valueStr);
-                            Log.d("ThunderBG", "Set image viewData[" + viewIdName + "]=" + valueStr + " (id=" + id + ")");
-                        } else {
-                            // C'est du texte
-                            views.setTextViewText(id, valueStr);
-                            Log.d("ThunderBG", "Set text viewData[" + viewIdName + "]=" + valueStr + " (id=" + id + ")");
-                        }
-                } else {
-                    Log.w("ThunderBG", "View ID not found: " + viewIdName + " in package " + pkg);
-                }
-            }
+    private org.json.JSONObject parseViewData(String viewDataJson) {
+        if (viewDataJson == null || viewDataJson.isEmpty()) return null;
+        try {
+            return new org.json.JSONObject(viewDataJson);
         } catch (Exception e) {
             Log.w("ThunderBG", "Failed parsing viewDataJson", e);
+            return null;
         }
     }
-    
+
     /**
-     * Applique le thème actuel aux RemoteViews
+     * Reporte une mise à jour dans le modèle (texte, thème, viewData, boutons).
+     * @return Nombre de propriétés modifiées
      */
-    private void applyTheme(RemoteViews views) {
+    private int updateModel(String title, String subtitle, String timerText, String viewDataJson, String buttonsJson) {
+        model.setLayout(customLayoutId);
+        if (titleViewId != null && title != null) model.set(titleViewId, NotificationModel.TEXT, title);
+        if (subtitleViewId != null && subtitle != null) model.set(subtitleViewId, NotificationModel.TEXT, subtitle);
+        if (timerViewId != null && timerText != null) model.set(timerViewId, NotificationModel.TEXT, timerText);
+        // Mode chronomètre: la vue timer doit être un Chronometer du layout
+        if (timerViewId != null) model.set(timerViewId, NotificationModel.CHRONOMETER, chronometerBase);
+
+        // Appliquer le thème s'il a changé: comparé par valeur, car un ThemeConfig peut être
+        // modifié en place par ses setters
         ThemeConfig theme = ThemeManager.getInstance(context).getCurrentTheme();
-        if (theme == null) {
-            return;
+        String themeJson = theme != null ? theme.toJson() : "";
+        if (!themeJson.equals(appliedThemeJson)) {
+            appliedThemeJson = themeJson;
+            applyTheme(theme);
         }
-        
-        String pkg = context.getPackageName();
-        
-        // Appliquer les couleurs aux vues si elles existent
-        if (titleViewId != null && theme.getTitleColor() != null) {
-            try {
-                int color = ThemeManager.parseColor(theme.getTitleColor());
-                views.setTextColor(titleViewId, color);
-            } catch (Exception e) {
-                Log.w("ThunderBG", "Error applying title color", e);
-            }
+
+        if (bindingPlan == null || bindingPlan.layoutId != customLayoutId) {
+            bindingPlan = new BindingPlan(customLayoutId);
         }
-        
-        if (subtitleViewId != null && theme.getSubtitleColor() != null) {
-            try {
-                int color = ThemeManager.parseColor(theme.getSubtitleColor());
-                views.setTextColor(subtitleViewId, color);
-            } catch (Exception e) {
-                Log.w("ThunderBG", "Error applying subtitle color", e);
+        boolean bound = false;
+        long span = Tracer.begin("notification.bindings");
+        try {
+            // JSON identique au précédent: ni analyse ni résolution
+            String source = model.beginGroup(NotificationModel.GROUP_VIEW_DATA, viewDataJson);
+            if (source != null) {
+                bindViewData(parseViewData(source));
+                model.endGroup(NotificationModel.GROUP_VIEW_DATA);
+                bound = true;
             }
-        }
-        
-        if (timerViewId != null) {
-            String timerColor = theme.getTimerColor() != null ? theme.getTimerColor() : theme.getAccentColor();
-            if (timerColor != null) {
-                try {
-                    int color = ThemeManager.parseColor(timerColor);
-                    views.setTextColor(timerViewId, color);
-                } catch (Exception e) {
-                    Log.w("ThunderBG", "Error applying timer color", e);
-                }
+            // Cache des boutons vidé (composants de l'app modifiés): PendingIntents à recréer
+            int buttonGeneration = ButtonBindingCache.getGeneration();
+            if (buttonGeneration != boundButtonGeneration) {
+                boundButtonGeneration = buttonGeneration;
+                model.invalidateGroup(NotificationModel.GROUP_BUTTONS);
             }
-        }
-        
-        // Appliquer la couleur de fond si un layout root existe
-        if (theme.getBackgroundColor() != null && customLayoutId != null) {
-            try {
-                // Essayer de trouver un ID de layout root (généralement @android:id/content ou le premier LinearLayout)
-                int rootId = android.R.id.content;
-                int color = ThemeManager.parseColor(theme.getBackgroundColor());
-                views.setInt(rootId, "setBackgroundColor", color);
-            } catch (Exception e) {
-                // Ignorer si on ne peut pas appliquer la couleur de fond
-                Log.d("ThunderBG", "Could not apply background color to layout");
+            source = model.beginGroup(NotificationModel.GROUP_BUTTONS, buttonsJson);
+            if (source != null) {
+                bindButtons(source);
+                model.endGroup(NotificationModel.GROUP_BUTTONS);
+                bound = true;
             }
+        } finally {
+            Tracer.end(span);
+        }
+        if (bound) {
+            PerformanceMetrics.getInstance(context).recordBindingPlan(bindingPlan.takeCompiled());
         }
+        return model.takeChanges();
     }
-        // Button bindings
-        if (buttonsJson != null && !buttonsJson.isEmpty()) {
-            try {
-                org.json.JSONArray arr = new org.json.JSONArray(buttonsJson);
-                Log.d("ThunderBG", "Processing " + arr.length() + " buttons");
-                for (int i = 0; i < arr.length(); i++) {
-                    org.json.JSONObject btn = arr.getJSONObject(i);
-                    String viewIdName = btn.optString("viewId", null);
-                    String action = btn.optString("action", null);
-                    org.json.JSONObject extras = btn.optJSONObject("extras");
-                    if (viewIdName == null || action == null) {
-                        Log.w("ThunderBG", "Button missing viewId or action: viewId=" + viewIdName + ", action=" + action);
-                        continue;
-                    }
-                    // Utiliser ResourceCache pour améliorer les performances
-                    int vid = ResourceCache.getResourceId(context, viewIdName, "id", pkg);
-                    if (vid == 0) {
-                        Log.e("ThunderBG", "Button view ID NOT FOUND: " + viewIdName + " in package " + pkg + ". Check your XML layout.");
-                        continue;
-                    }
-                    // Find receiver explicitly for better reliability
-                    android.content.pm.PackageManager pm = context.getPackageManager();
-                    android.content.Intent testIntent = new android.content.Intent(action);
-                    testIntent.setPackage(pkg);
-                    java.util.List<android.content.pm.ResolveInfo> receivers = pm.queryBroadcastReceivers(testIntent, 0);
-                    
-                    android.content.Intent intent;
-                    if (receivers != null && !receivers.isEmpty()) {
-                        // Use explicit component (more reliable than setPackage)
-                        android.content.pm.ResolveInfo ri = receivers.get(0);
-                        android.content.ComponentName component = new android.content.ComponentName(ri.activityInfo.packageName, ri.activityInfo.name);
-                        intent = new android.content.Intent(action).setComponent(component);
-                        Log.d("ThunderBG", "✅ Using explicit component: " + component.toString());
+
+    private void bindViewData(org.json.JSONObject viewData) {
+        if (viewData == null) return;
+        // Text bindings and image bindings
+        try {
+            java.util.Iterator<String> keys = viewData.keys();
+            while (keys.hasNext()) {
+                String viewIdName = keys.next();
+                // Id résolu une fois par layout (plan de liaison)
+                int id = bindingPlan.slot(context, viewIdName);
+                if (id != 0) {
+                    String valueStr = String.valueOf(viewData.get(viewIdName));
+
+                    // Détecter si c'est une image (Base64 ou URL)
+                    if (BindingPlan.isImageSource(valueStr)) {
+                        // C'est une image (chargée au rendu, depuis le cache si déjà décodée)
+                        if (model.set(id, NotificationModel.IMAGE, valueStr)) {
+                            model.set(id, NotificationModel.TEXT, null);
+                            Log.d("ThunderBG", "Set image viewData[" + viewIdName + "] (id=" + id + ")");
+                        }
                     } else {
-                        // Fallback: use setPackage (less reliable but better than nothing)
-                        Log.e("ThunderBG", "⚠️ NO RECEIVER FOUND for action=" + action + " in package=" + pkg + ". Using setPackage fallback. Check AndroidManifest.xml!");
-                        intent = new android.content.Intent(action);
-                        intent.setPackage(pkg);
-                    }
-                    
-                    if (extras != null) {
-                        java.util.Iterator<String> k = extras.keys();
-                        while (k.hasNext()) {
-                            String key = k.next();
-                            intent.putExtra(key, String.valueOf(extras.get(key)));
+                        // C'est du texte
+                        if (model.set(id, NotificationModel.TEXT, valueStr)) {
+                            model.set(id, NotificationModel.IMAGE, null);
+                            Log.d("ThunderBG", "Set text viewData[" + viewIdName + "]=" + valueStr + " (id=" + id + ")");
                         }
                     }
-                    
-                    // Use unique requestCode per button (hash of viewIdName + action)
-                    int requestCode = (viewIdName + action).hashCode();
-                    // Ensure requestCode is positive (PendingIntent requirement)
-                    if (requestCode < 0) requestCode = Math.abs(requestCode);
-                    
-                    // Create PendingIntent with correct flags
-                    PendingIntent pi = PendingIntent.getBroadcast(
-                        context, 
-                        requestCode, 
-                        intent, 
-                        PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT
-                    );
-                    
-                    views.setOnClickPendingIntent(vid, pi);
-                    Log.i("ThunderBG", "Button bound: viewId=" + viewIdName + " (id=" + vid + ") -> action=" + action + " (requestCode=" + requestCode + ", component=" + intent.getComponent() + ")");
                 }
-            } catch (Exception e) {
-                Log.e("ThunderBG", "Failed parsing buttonsJson: " + buttonsJson, e);
             }
+        } catch (Exception e) {
+            Log.w("ThunderBG", "Failed binding viewData", e);
         }
     }
-    
+
+    private void bindButtons(String buttonsJson) {
+        // Jeu de boutons déjà vu: liaisons compilées reprises telles quelles
+        for (BindingPlan.Button button : bindingPlan.buttons(context, buttonsJson)) {
+            model.set(button.viewId, NotificationModel.CLICK, button.click);
+        }
+    }
+
     /**
-     * Vérifie si une chaîne est une source d'image (Base64, URL, ou ressource)
+     * Reporte les couleurs du thème dans le modèle (null: couleurs retirées)
      */
-    private boolean isImageSource(String value) {
-        if (value == null || value.isEmpty()) {
-            return false;
+    private void applyTheme(ThemeConfig theme) {
+        // Appliquer les couleurs aux vues si elles existent
+        setThemeColor(titleViewId, NotificationModel.TEXT_COLOR, theme != null ? theme.getTitleColor() : null);
+        setThemeColor(subtitleViewId, NotificationModel.TEXT_COLOR, theme != null ? theme.getSubtitleColor() : null);
+        String timerColor = theme == null ? null
+            : theme.getTimerColor() != null ? theme.getTimerColor() : theme.getAccentColor();
+        setThemeColor(timerViewId, NotificationModel.TEXT_COLOR, timerColor);
+
+        // Appliquer la couleur de fond au layout root (généralement @android:id/content)
+        setThemeColor(android.R.id.content, NotificationModel.BACKGROUND_COLOR, theme != null ? theme.getBackgroundColor() : null);
+    }
+
+    private void setThemeColor(Integer viewId, int property, String color) {
+        if (viewId == null) return;
+        Integer parsed = null;
+        if (color != null) {
+            try {
+                parsed = ThemeManager.parseColor(color);
+            } catch (Exception e) {
+                Log.w("ThunderBG", "Error applying theme color " + color, e);
+            }
         }
-        
-        // Base64
-        if (value.startsWith("data:image") || value.startsWith("base64,")) {
-            return true;
+        model.set(viewId, property, parsed);
+    }
+
+    /**
+     * Builder des mises à jour, créé une fois (seules les RemoteViews changent)
+     */
+    private NotificationCompat.Builder updateBuilder() {
+        if (updateBuilder == null) {
+            updateBuilder = new NotificationCompat.Builder(context, CHANNEL_ID_FOREGROUND)
+                    .setSmallIcon(defaultIconId)
+                    .setOngoing(true)
+                    .setOnlyAlertOnce(true)
+                    .setPriority(NotificationCompat.PRIORITY_DEFAULT)
+                    .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+                    .setShowWhen(true)
+                    .setCategory(NotificationCompat.CATEGORY_SERVICE);
         }
-        
-        // URL
-        if (value.startsWith("http://") || value.startsWith("https://")) {
-            return true;
+        return updateBuilder;
+    }
+
+    /**
+     * Taille sérialisée de la notification (ce que notify() transmet à system_server)
+     */
+    private void measureParcel(PerformanceMetrics metrics, Notification notification) {
+        android.os.Parcel parcel = android.os.Parcel.obtain();
+        try {
+            notification.writeToParcel(parcel, 0);
+            metrics.recordNotificationParcelSize(parcel.dataSize());
+        } catch (Exception e) {
+            Log.d("ThunderBG", "Could not measure notification parcel size", e);
+        } finally {
+            parcel.recycle();
         }
-        
-        // Ressource drawable (optionnel - on peut aussi le traiter comme texte)
-        // On ne le détecte pas automatiquement car cela pourrait être un nom de TextView
-        
-        return false;
     }
 }
-
@@ -0,0 +1,203 @@
+package com.ahmedmili.thunderbgservice.helpers;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.widget.RemoteViews;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dernier état appliqué aux vues de la notification: une valeur par (vue, propriété).
+ *
+ * Chaque mise à jour est comparée à cet état: les valeurs inchangées ne sont ni ré-analysées
+ * ni ré-résolues (PendingIntent, couleurs), et une mise à jour qui ne change rien n'est pas
+ * envoyée. Une notification n'accepte pas de mise à jour partielle (le système remplace ses
+ * RemoteViews en entier): render() produit donc des RemoteViews neuves, avec exactement une
+ * action par propriété, depuis l'état mémorisé.
+ *
+ * Les liaisons viewData et boutons forment des groupes remplacés en entier à chaque nouveau
+ * JSON (une clé absente du nouveau JSON disparaît, comme avant); titre, sous-titre et timer
+ * gardent leur dernière valeur tant qu'ils ne sont pas fournis.
+ */
+final class NotificationModel {
+    static final int TEXT = 0;
+    static final int TEXT_COLOR = 1;
+    static final int BACKGROUND_COLOR = 2;
+    static final int IMAGE = 3;
+    static final int CLICK = 4;
+    static final int CHRONOMETER = 5;
+
+    static final int GROUP_VIEW_DATA = 0;
+    static final int GROUP_BUTTONS = 1;
+    private static final int GROUP_COUNT = 2;
+
+    private final Map<Long, Object> values = new LinkedHashMap<>();
+    @SuppressWarnings("unchecked")
+    private final Set<Long>[] groups = new Set[GROUP_COUNT];
+    private final String[] groupSources = new String[GROUP_COUNT];
+    private final boolean[] staleGroups = new boolean[GROUP_COUNT];
+    private Set<Long> pendingGroup;
+    private int layoutId = 0;
+    private int changes = 0;
+
+    /**
+     * Change de layout: tout l'état précédent est abandonné.
+     */
+    void setLayout(int layoutId) {
+        if (layoutId == this.layoutId) return;
+        reset();
+        this.layoutId = layoutId;
+        changes++;
+    }
+
+    void reset() {
+        layoutId = 0;
+        values.clear();
+        for (int i = 0; i < GROUP_COUNT; i++) {
+            groups[i] = null;
+            groupSources[i] = null;
+            staleGroups[i] = false;
+        }
+        pendingGroup = null;
+        changes = 0;
+    }
+
+    /**
+     * @param value null retire la propriété
+     * @return true si la valeur a changé
+     */
+    boolean set(int viewId, int property, Object value) {
+        Long key = key(viewId, property);
+        if (pendingGroup != null) pendingGroup.add(key);
+        Object previous = value != null ? values.put(key, value) : values.remove(key);
+        if (value == null ? previous == null : value.equals(previous)) return false;
+        changes++;
+        return true;
+    }
+
+    Object get(int viewId, int property) {
+        return values.get(key(viewId, property));
+    }
+
+    /**
+     * Ouvre le remplacement d'un groupe si sa source JSON a changé ou s'il a été invalidé.
+     * @param source null: source inchangée
+     * @return Source à lier, null si rien à faire
+     */
+    String beginGroup(int group, String source) {
+        if (staleGroups[group]) {
+            staleGroups[group] = false;
+            if (source == null) source = groupSources[group];
+        } else if (source != null && source.equals(groupSources[group])) {
+            return null;
+        }
+        if (source == null) return null;
+        groupSources[group] = source;
+        pendingGroup = new HashSet<>();
+        return source;
+    }
+
+    /**
+     * Force la re-liaison du groupe à la prochaine mise à jour, même si sa source est inchangée.
+     */
+    void invalidateGroup(int group) {
+        staleGroups[group] = true;
+    }
+
+    /**
+     * Clôt le groupe: les propriétés de l'ancien groupe non redéfinies sont retirées.
+     */
+    void endGroup(int group) {
+        Set<Long> previous = groups[group];
+        if (previous != null) {
+            for (Long key : previous) {
+                if (!pendingGroup.contains(key) && values.remove(key) != null) changes++;
+            }
+        }
+        groups[group] = pendingGroup;
+        pendingGroup = null;
+    }
+
+    /**
+     * Nombre de propriétés modifiées depuis le dernier appel.
+     */
+    int takeChanges() {
+        int count = changes;
+        changes = 0;
+        return count;
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    /**
+     * @param onImageLoaded Appelé quand une image absente du cache a fini de charger
+     */
+    RemoteViews render(Context context, Runnable onImageLoaded) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), layoutId);
+        Iterator<Map.Entry<Long, Object>> entries = values.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Long, Object> entry = entries.next();
+            int viewId = (int) (entry.getKey() >> 3);
+            Object value = entry.getValue();
+            switch ((int) (entry.getKey() & 7)) {
+                case TEXT:
+                    views.setTextViewText(viewId, (String) value);
+                    break;
+                case TEXT_COLOR:
+                    views.setTextColor(viewId, (Integer) value);
+                    break;
+                case BACKGROUND_COLOR:
+                    views.setInt(viewId, "setBackgroundColor", (Integer) value);
+                    break;
+                case IMAGE:
+                    // Bitmap déjà décodée: reprise depuis le cache d'ImageLoaderHelper; sinon
+                    // chargée en arrière-plan puis affichée par un nouveau rendu
+                    ImageLoaderHelper.loadImage(context, views, viewId, (String) value, onImageLoaded);
+                    break;
+                case CLICK:
+                    views.setOnClickPendingIntent(viewId, ((Click) value).intent);
+                    break;
+                case CHRONOMETER:
+                    // Base en elapsedRealtime: le système redessine le Chronometer chaque seconde
+                    views.setChronometer(viewId, (Long) value, null, true);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return views;
+    }
+
+    private static Long key(int viewId, int property) {
+        return ((long) viewId << 3) | property;
+    }
+
+    /**
+     * Liaison de bouton: même description (vue, action, extras) et même PendingIntent
+     * (ButtonBindingCache en recrée après un changement de composants de l'app).
+     */
+    static final class Click {
+        final String key;
+        final PendingIntent intent;
+
+        Click(String key, PendingIntent intent) {
+            this.key = key;
+            this.intent = intent;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Click && ((Click) other).key.equals(key) && ((Click) other).intent == intent;
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.ahmedmili.thunderbgservice.helpers;
+
+/**
+ * Commande de mise à jour de notification, immuable: transmise telle quelle au thread de rendu.
+ *
+ * Un champ null n'est pas fourni et garde sa valeur précédente. Deux commandes en attente se
+ * fusionnent en une nouvelle (la plus récente l'emporte champ par champ).
+ */
+final class NotificationUpdate {
+    final String title;
+    final String subtitle;
+    final String timerText;
+    final String viewDataJson;
+    final String buttonsJson;
+    // SystemClock.elapsedRealtimeNanos() de la plus ancienne demande, 0 si inconnu
+    final long requestedAtNanos;
+    // Rendu forcé même sans changement du modèle (image chargée en arrière-plan)
+    final boolean refresh;
+
+    NotificationUpdate(String title, String subtitle, String timerText, String viewDataJson,
+                       String buttonsJson, long requestedAtNanos) {
+        this(title, subtitle, timerText, viewDataJson, buttonsJson, requestedAtNanos, false);
+    }
+
+    private NotificationUpdate(String title, String subtitle, String timerText, String viewDataJson,
+                               String buttonsJson, long requestedAtNanos, boolean refresh) {
+        this.title = title;
+        this.subtitle = subtitle;
+        this.timerText = timerText;
+        this.viewDataJson = viewDataJson;
+        this.buttonsJson = buttonsJson;
+        this.requestedAtNanos = requestedAtNanos;
+        this.refresh = refresh;
+    }
+
+    /**
+     * Re-rendu de l'état courant (aucun champ fourni).
+     */
+    static NotificationUpdate refresh() {
+        return new NotificationUpdate(null, null, null, null, null, 0L, true);
+    }
+
+    /**
+     * Fusionne une commande plus récente dans celle-ci.
+     */
+    NotificationUpdate mergedWith(NotificationUpdate newer) {
+        return new NotificationUpdate(
+            newer.title != null ? newer.title : title,
+            newer.subtitle != null ? newer.subtitle : subtitle,
+            newer.timerText != null ? newer.timerText : timerText,
+            newer.viewDataJson != null ? newer.viewDataJson : viewDataJson,
+            newer.buttonsJson != null ? newer.buttonsJson : buttonsJson,
+            requestedAtNanos > 0 ? requestedAtNanos : newer.requestedAtNanos,
+            refresh || newer.refresh);
+    }
+}
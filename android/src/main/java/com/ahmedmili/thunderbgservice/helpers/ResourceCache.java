@@ -2,6 +2,7 @@ package com.ahmedmili.thunderbgservice.helpers;
 
 import android.content.Context;
 import android.util.Log;
+import com.ahmedmili.thunderbgservice.metrics.Tracer;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map;
 
@@ -48,7 +49,9 @@ public class ResourceCache {
         
         // Cache miss: résoudre l'ID
         cacheMisses++;
+        long span = Tracer.begin("resources.resolve");
         int resourceId = context.getResources().getIdentifier(resourceName, resourceType, packageName);
+        Tracer.end(span, cacheKey);
         
         // Mettre en cache même si 0 (pour éviter de chercher à nouveau des ressources inexistantes)
         resourceCache.put(cacheKey, resourceId);
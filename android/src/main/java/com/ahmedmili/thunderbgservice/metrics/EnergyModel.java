@@ -0,0 +1,310 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import android.util.Log;
+import org.json.JSONObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Modèle d'attribution d'énergie par composant (tâche, géofence, rendu de notification, localisation).
+ *
+ * Mesure: un récepteur de la diffusion collante ACTION_BATTERY_CHANGED relève
+ * BATTERY_PROPERTY_CHARGE_COUNTER / CURRENT_NOW à chaque changement d'état de la batterie
+ * (pas de lecture à chaque getMetrics()). La décharge n'est cumulée que hors charge.
+ *
+ * Estimation: chaque composant déclare son temps CPU, son temps éveillé (durée d'exécution),
+ * son temps de requête de localisation et son temps de surveillance de géofence;
+ * l'estimation en µAh applique à ces durées des courants moyens typiques (voir constantes).
+ * La part estimée / mesurée ("modelShare") indique la part de la décharge expliquée par le plugin.
+ */
+public class EnergyModel {
+    private static final String TAG = "EnergyModel";
+
+    // Courants moyens typiques (µA) appliqués aux durées mesurées
+    private static final double CPU_ACTIVE_UA = 120000;   // Cœur CPU actif
+    private static final double AWAKE_UA = 15000;         // Appareil maintenu éveillé
+    private static final double LOCATION_UA = 60000;      // Requête de localisation haute précision
+    private static final double GEOFENCE_UA = 1500;       // Surveillance d'une géofence
+    private static final double NANOS_PER_HOUR = 3600e9;
+
+    public static final String COMPONENT_NOTIFICATION = "notification";
+    public static final String COMPONENT_LOCATION = "location";
+    private static final String TASK_PREFIX = "task:";
+    private static final String GEOFENCE_PREFIX = "geofence:";
+
+    private static EnergyModel instance;
+    private final Context context;
+    private final Map<String, Usage> components = new ConcurrentHashMap<>();
+    private final Map<String, Long> geofenceMonitoringSince = new ConcurrentHashMap<>();
+    private volatile long locationActiveSince = 0;
+    private BroadcastReceiver batteryReceiver;
+
+    // Dernier relevé batterie
+    private long lastSampleAt = 0;
+    private int lastChargeUah = 0;
+    private boolean lastPlugged = true;
+    private volatile int batteryLevel = -1;
+    private volatile int lastCurrentUa = 0;
+    private volatile boolean charging = false;
+    private long measuredDrainUah = 0;
+    private long measuredUnpluggedMs = 0;
+    private boolean chargeCounterSupported = false;
+
+    private EnergyModel(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized EnergyModel getInstance(Context context) {
+        if (instance == null) {
+            instance = new EnergyModel(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Démarre l'échantillonnage batterie (le relevé courant est traité immédiatement).
+     */
+    public synchronized void start() {
+        if (batteryReceiver != null) return;
+        batteryReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context ctx, Intent intent) {
+                onBatteryChanged(intent);
+            }
+        };
+        try {
+            Intent sticky = context.registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (sticky != null) {
+                onBatteryChanged(sticky);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Error registering battery receiver", e);
+            batteryReceiver = null;
+        }
+    }
+
+    public synchronized void stop() {
+        if (batteryReceiver == null) return;
+        try {
+            context.unregisterReceiver(batteryReceiver);
+        } catch (Exception ignored) {}
+        batteryReceiver = null;
+        // Plus de relevés: les lecteurs interrogent de nouveau BatteryManager
+        batteryLevel = -1;
+    }
+
+    /**
+     * Niveau de batterie (%) du dernier relevé, -1 si aucun relevé ou échantillonnage arrêté.
+     */
+    public int getBatteryLevel() {
+        return batteryLevel;
+    }
+
+    private synchronized void onBatteryChanged(Intent intent) {
+        long now = SystemClock.elapsedRealtime();
+        boolean plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        if (level >= 0 && scale > 0) {
+            batteryLevel = level * 100 / scale;
+        }
+        charging = plugged;
+
+        int charge = 0;
+        try {
+            BatteryManager batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+            if (batteryManager != null) {
+                charge = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CHARGE_COUNTER);
+                lastCurrentUa = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CURRENT_NOW);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Error reading battery properties", e);
+        }
+        // Integer.MIN_VALUE ou 0: propriété non supportée par l'appareil
+        boolean valid = charge > 0;
+        chargeCounterSupported |= valid;
+
+        if (valid && lastSampleAt > 0 && lastChargeUah > 0 && !plugged && !lastPlugged) {
+            long consumed = lastChargeUah - charge;
+            if (consumed > 0) {
+                measuredDrainUah += consumed;
+            }
+            measuredUnpluggedMs += now - lastSampleAt;
+        }
+        lastSampleAt = now;
+        lastChargeUah = valid ? charge : 0;
+        lastPlugged = plugged;
+    }
+
+    /**
+     * Enregistre le coût d'une exécution de composant.
+     * @param cpuNs Temps CPU du thread (Debug.threadCpuTimeNanos())
+     * @param wallNs Durée réelle d'exécution (temps pendant lequel l'appareil est maintenu éveillé)
+     */
+    public void recordExecution(String component, long cpuNs, long wallNs) {
+        Usage usage = usage(component);
+        usage.cpuNs.addAndGet(Math.max(0, cpuNs));
+        usage.awakeNs.addAndGet(Math.max(0, wallNs));
+        PerformanceMetrics.getInstance(context).recordCpuTime(cpuNs);
+    }
+
+    public void recordTaskExecution(String taskId, long cpuNs, long wallNs) {
+        recordExecution(TASK_PREFIX + taskId, cpuNs, wallNs);
+    }
+
+    public void recordGeofenceExecution(String geofenceId, long cpuNs, long wallNs) {
+        recordExecution(GEOFENCE_PREFIX + geofenceId, cpuNs, wallNs);
+    }
+
+    /**
+     * Début/fin d'une requête de localisation.
+     */
+    public void setLocationActive(boolean active) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        synchronized (this) {
+            if (active && locationActiveSince == 0) {
+                locationActiveSince = now;
+            } else if (!active && locationActiveSince != 0) {
+                usage(COMPONENT_LOCATION).locationNs.addAndGet(now - locationActiveSince);
+                locationActiveSince = 0;
+            }
+        }
+    }
+
+    /**
+     * Début/fin de la surveillance d'une géofence.
+     */
+    public void setGeofenceMonitored(String geofenceId, boolean monitored) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (monitored) {
+            geofenceMonitoringSince.putIfAbsent(geofenceId, now);
+        } else {
+            Long since = geofenceMonitoringSince.remove(geofenceId);
+            if (since != null) {
+                usage(GEOFENCE_PREFIX + geofenceId).geofenceNs.addAndGet(now - since);
+            }
+        }
+    }
+
+    public void reset() {
+        components.clear();
+        long now = SystemClock.elapsedRealtimeNanos();
+        for (String id : geofenceMonitoringSince.keySet()) {
+            geofenceMonitoringSince.put(id, now);
+        }
+        synchronized (this) {
+            if (locationActiveSince != 0) locationActiveSince = now;
+            measuredDrainUah = 0;
+            measuredUnpluggedMs = 0;
+        }
+    }
+
+    /**
+     * Mesures et estimations pour PerformanceMetrics (µAh).
+     */
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        try {
+            long now = SystemClock.elapsedRealtimeNanos();
+            JSONObject tasks = new JSONObject();
+            JSONObject geofences = new JSONObject();
+            double geofencesTotal = 0;
+            double notification = 0;
+            double total = 0;
+
+            for (Map.Entry<String, Usage> entry : components.entrySet()) {
+                String key = entry.getKey();
+                // Géofences et localisation: ajoutées plus bas avec la durée en cours
+                if (key.startsWith(GEOFENCE_PREFIX) || key.equals(COMPONENT_LOCATION)) continue;
+                double uah = entry.getValue().estimateUah(0, 0);
+                if (key.startsWith(TASK_PREFIX)) {
+                    tasks.put(key.substring(TASK_PREFIX.length()), uah);
+                } else if (key.equals(COMPONENT_NOTIFICATION)) {
+                    notification = uah;
+                }
+                total += uah;
+            }
+            long activeLocationNs = locationActiveSince != 0 ? now - locationActiveSince : 0;
+            Usage locationUsage = components.get(COMPONENT_LOCATION);
+            double location = locationUsage != null
+                ? locationUsage.estimateUah(activeLocationNs, 0)
+                : activeLocationNs * LOCATION_UA / NANOS_PER_HOUR;
+            total += location;
+
+            // Géofences: exécutions passées + surveillance en cours
+            java.util.Set<String> geofenceIds = new java.util.HashSet<>(geofenceMonitoringSince.keySet());
+            for (String key : components.keySet()) {
+                if (key.startsWith(GEOFENCE_PREFIX)) geofenceIds.add(key.substring(GEOFENCE_PREFIX.length()));
+            }
+            for (String id : geofenceIds) {
+                Long since = geofenceMonitoringSince.get(id);
+                long activeNs = since != null ? now - since : 0;
+                Usage usage = components.get(GEOFENCE_PREFIX + id);
+                double uah = usage != null
+                    ? usage.estimateUah(0, activeNs)
+                    : activeNs * GEOFENCE_UA / NANOS_PER_HOUR;
+                geofences.put(id, uah);
+                geofencesTotal += uah;
+            }
+            total += geofencesTotal;
+
+            JSONObject estimated = new JSONObject();
+            estimated.put("tasks", tasks);
+            JSONObject geofenceSet = new JSONObject();
+            geofenceSet.put("total", geofencesTotal);
+            geofenceSet.put("active", geofenceMonitoringSince.size());
+            geofenceSet.put("byId", geofences);
+            estimated.put("geofences", geofenceSet);
+            estimated.put("notification", notification);
+            estimated.put("location", location);
+            estimated.put("total", total);
+            stats.put("estimatedUah", estimated);
+
+            JSONObject measured = new JSONObject();
+            synchronized (this) {
+                measured.put("supported", chargeCounterSupported);
+                measured.put("drainUah", measuredDrainUah);
+                measured.put("unpluggedMs", measuredUnpluggedMs);
+                measured.put("avgCurrentUa", measuredUnpluggedMs > 0 ? measuredDrainUah * 3600000.0 / measuredUnpluggedMs : 0.0);
+                measured.put("modelShare", measuredDrainUah > 0 ? total / measuredDrainUah : JSONObject.NULL);
+            }
+            measured.put("currentNowUa", lastCurrentUa);
+            measured.put("charging", charging);
+            stats.put("measured", measured);
+        } catch (Exception e) {
+            Log.w(TAG, "Error building energy stats", e);
+        }
+        return stats;
+    }
+
+    private Usage usage(String component) {
+        Usage usage = components.get(component);
+        if (usage == null) {
+            Usage created = new Usage();
+            usage = components.putIfAbsent(component, created);
+            if (usage == null) usage = created;
+        }
+        return usage;
+    }
+
+    private static final class Usage {
+        final AtomicLong cpuNs = new AtomicLong(0);
+        final AtomicLong awakeNs = new AtomicLong(0);
+        final AtomicLong locationNs = new AtomicLong(0);
+        final AtomicLong geofenceNs = new AtomicLong(0);
+
+        double estimateUah(long extraLocationNs, long extraGeofenceNs) {
+            return (cpuNs.get() * CPU_ACTIVE_UA
+                + awakeNs.get() * AWAKE_UA
+                + (locationNs.get() + extraLocationNs) * LOCATION_UA
+                + (geofenceNs.get() + extraGeofenceNs) * GEOFENCE_UA) / NANOS_PER_HOUR;
+        }
+    }
+}
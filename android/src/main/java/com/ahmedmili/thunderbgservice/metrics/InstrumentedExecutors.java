@@ -0,0 +1,236 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import android.util.Log;
+import org.json.JSONObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fabrique d'executors instrumentés: threads actifs, profondeur de file, temps d'attente
+ * (soumission ou heure planifiée -> début d'exécution), temps d'exécution et rejets.
+ *
+ * Les statistiques sont conservées par nom d'executor: un executor recréé sous le même nom
+ * (ex: scheduler des tâches après stopAll()) poursuit les mêmes compteurs.
+ *
+ * Usage:
+ * ExecutorService pool = InstrumentedExecutors.newFixedThreadPool("imageLoader", 3);
+ */
+public final class InstrumentedExecutors {
+    private static final String TAG = "InstrumentedExecutors";
+    private static final Map<String, Stats> registry = new ConcurrentHashMap<>();
+
+    // Début de l'exécution en cours sur ce thread (ns)
+    private static final ThreadLocal<long[]> runStart = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private InstrumentedExecutors() {}
+
+    public static ExecutorService newFixedThreadPool(String name, int threads) {
+        Stats stats = stats(name);
+        Pool pool = new Pool(threads, stats);
+        stats.executor = pool;
+        return pool;
+    }
+
+    public static ExecutorService newSingleThreadExecutor(String name) {
+        return newFixedThreadPool(name, 1);
+    }
+
+    public static ScheduledExecutorService newScheduledThreadPool(String name, int threads) {
+        Stats stats = stats(name);
+        Scheduled pool = new Scheduled(threads, stats);
+        stats.executor = pool;
+        return pool;
+    }
+
+    /**
+     * Statistiques de tous les executors instrumentés, pour PerformanceMetrics.
+     */
+    public static JSONObject getStats() {
+        JSONObject json = new JSONObject();
+        try {
+            for (Map.Entry<String, Stats> entry : registry.entrySet()) {
+                json.put(entry.getKey(), entry.getValue().toJson());
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Error building executor stats", e);
+        }
+        return json;
+    }
+
+    public static void reset() {
+        for (Stats stats : registry.values()) {
+            stats.waitTime.reset();
+            stats.runTime.reset();
+            stats.rejected.set(0);
+        }
+    }
+
+    private static Stats stats(String name) {
+        Stats stats = registry.get(name);
+        if (stats == null) {
+            Stats created = new Stats(name);
+            stats = registry.putIfAbsent(name, created);
+            if (stats == null) stats = created;
+        }
+        return stats;
+    }
+
+    private static void beforeRun(Stats stats, long waitNanos) {
+        long now = System.nanoTime();
+        stats.waitTime.record(Math.max(0, waitNanos) / 1000);
+        runStart.get()[0] = now;
+    }
+
+    private static void afterRun(Stats stats) {
+        long[] start = runStart.get();
+        if (start[0] != 0) {
+            stats.runTime.record((System.nanoTime() - start[0]) / 1000);
+            start[0] = 0;
+        }
+    }
+
+    static final class Stats implements ThreadFactory, RejectedExecutionHandler {
+        final String name;
+        final LatencyHistogram waitTime = new LatencyHistogram();
+        final LatencyHistogram runTime = new LatencyHistogram();
+        final AtomicLong rejected = new AtomicLong(0);
+        private final AtomicInteger threadCount = new AtomicInteger(0);
+        volatile ThreadPoolExecutor executor;
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ThunderBg-" + name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Task rejected by executor " + name
+                + (executor.isShutdown() ? " (shut down)" : ""));
+        }
+
+        JSONObject toJson() throws Exception {
+            JSONObject json = new JSONObject();
+            ThreadPoolExecutor current = executor;
+            if (current != null) {
+                json.put("poolSize", current.getPoolSize());
+                json.put("activeThreads", current.getActiveCount());
+                json.put("queueDepth", current instanceof Scheduled
+                    ? ((Scheduled) current).readyCount() : current.getQueue().size());
+                json.put("completed", current.getCompletedTaskCount());
+                json.put("shutdown", current.isShutdown());
+            }
+            json.put("rejected", rejected.get());
+            json.put("waitTime", waitTime.snapshot().toJson());
+            json.put("runTime", runTime.snapshot().toJson());
+            return json;
+        }
+    }
+
+    /**
+     * Pool à taille fixe: le temps d'attente est mesuré depuis la soumission.
+     */
+    private static final class Pool extends ThreadPoolExecutor {
+        private final Stats stats;
+
+        Pool(int threads, Stats stats) {
+            super(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), stats, stats);
+            this.stats = stats;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(new Queued(command));
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable runnable) {
+            super.beforeExecute(thread, runnable);
+            if (runnable instanceof Queued) {
+                beforeRun(stats, System.nanoTime() - ((Queued) runnable).enqueuedAt);
+            }
+        }
+
+        @Override
+        protected void afterExecute(Runnable runnable, Throwable throwable) {
+            afterRun(stats);
+            super.afterExecute(runnable, throwable);
+        }
+    }
+
+    /**
+     * Scheduler: le temps d'attente est le retard par rapport à l'heure planifiée.
+     */
+    private static final class Scheduled extends ScheduledThreadPoolExecutor {
+        private final Stats stats;
+
+        Scheduled(int threads, Stats stats) {
+            super(threads, stats, stats);
+            this.stats = stats;
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable runnable) {
+            super.beforeExecute(thread, runnable);
+            // Pour une tâche planifiée, getDelay() est encore relatif à l'exécution en cours
+            long lateness = runnable instanceof Delayed ? -((Delayed) runnable).getDelay(TimeUnit.NANOSECONDS) : 0;
+            beforeRun(stats, lateness);
+        }
+
+        @Override
+        protected void afterExecute(Runnable runnable, Throwable throwable) {
+            afterRun(stats);
+            super.afterExecute(runnable, throwable);
+        }
+
+        /**
+         * Tâches dont l'heure est passée et qui attendent un thread.
+         */
+        int readyCount() {
+            int ready = 0;
+            for (Runnable runnable : getQueue()) {
+                if (runnable instanceof Delayed && ((Delayed) runnable).getDelay(TimeUnit.NANOSECONDS) <= 0) {
+                    ready++;
+                }
+            }
+            return ready;
+        }
+    }
+
+    private static final class Queued implements Runnable {
+        final Runnable delegate;
+        final long enqueuedAt = System.nanoTime();
+
+        Queued(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            delegate.run();
+        }
+    }
+}
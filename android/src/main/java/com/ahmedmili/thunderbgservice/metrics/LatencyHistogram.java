@@ -0,0 +1,238 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import android.util.Base64;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme de latences à buckets logarithmiques (style HDR), enregistrement sans verrou.
+ *
+ * Valeurs en microsecondes. Les valeurs 0..7 ont chacune leur bucket; au-delà, chaque
+ * puissance de 2 est découpée en 8 sous-buckets (erreur relative <= 12,5%).
+ * Plage: 0 .. 2^40 µs (~12 jours), les valeurs plus grandes sont plafonnées.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong(0);
+    private final AtomicLong sum = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Enregistre une valeur (µs).
+     */
+    public void record(long valueMicros) {
+        long value = Math.max(0, Math.min(valueMicros, MAX_VALUE));
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, value)) break;
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Somme des valeurs enregistrées (µs)
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Valeur (µs) en dessous de laquelle se trouvent percentile% des valeurs.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Nombre de valeurs <= valueMicros, arrondi au bucket: le bucket contenant valueMicros est
+     * compté en entier, si bien que des valeurs jusqu'à bucketUpperBound(bucketIndex(valueMicros))
+     * (au plus 12,5% au-dessus) peuvent être incluses. Toute valeur <= valueMicros l'est.
+     */
+    public long getCountAtOrBelow(long valueMicros) {
+        if (valueMicros < 0) return 0;
+        int last = bucketIndex(Math.min(valueMicros, MAX_VALUE));
+        long count = 0;
+        for (int i = 0; i <= last; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Ajoute le contenu d'un autre histogramme à celui-ci.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) counts.addAndGet(i, count);
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        sum.addAndGet(other.sum.get());
+        long otherMax = other.max.get();
+        long currentMax;
+        while (otherMax > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, otherMax)) break;
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(getCount(), getSum(), getMax(),
+            getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99));
+    }
+
+    /**
+     * Encodage compact (Base64): [sum][max] puis paires (écart d'index, compte) des buckets
+     * non vides, le tout en varints.
+     */
+    public String encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, sum.get());
+        writeVarint(out, max.get());
+        int previous = -1;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = counts.get(i);
+            if (count != 0) {
+                writeVarint(out, i - previous);
+                writeVarint(out, count);
+                previous = i;
+            }
+        }
+        return Base64.encodeToString(out.toByteArray(), Base64.NO_WRAP);
+    }
+
+    /**
+     * Restaure un histogramme encodé par encode() (ajouté au contenu courant).
+     */
+    public static LatencyHistogram decode(String encoded) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        if (encoded == null || encoded.isEmpty()) return histogram;
+        try {
+            byte[] bytes = Base64.decode(encoded, Base64.NO_WRAP);
+            int[] position = {0};
+            histogram.sum.set(readVarint(bytes, position));
+            histogram.max.set(readVarint(bytes, position));
+            int index = -1;
+            long total = 0;
+            while (position[0] < bytes.length) {
+                index += (int) readVarint(bytes, position);
+                long count = readVarint(bytes, position);
+                if (index < 0 || index >= BUCKET_COUNT) break;
+                histogram.counts.set(index, count);
+                total += count;
+            }
+            histogram.totalCount.set(total);
+        } catch (Exception e) {
+            histogram.reset();
+        }
+        return histogram;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] bytes, int[] position) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = bytes[position[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+            shift += 7;
+        }
+    }
+
+    /**
+     * Photo immuable d'un histogramme (valeurs en µs).
+     */
+    public static class Snapshot {
+        public final long count;
+        public final long sumMicros;
+        public final long maxMicros;
+        public final long p50Micros;
+        public final long p90Micros;
+        public final long p99Micros;
+
+        public Snapshot(long count, long sumMicros, long maxMicros, long p50Micros, long p90Micros, long p99Micros) {
+            this.count = count;
+            this.sumMicros = sumMicros;
+            this.maxMicros = maxMicros;
+            this.p50Micros = p50Micros;
+            this.p90Micros = p90Micros;
+            this.p99Micros = p99Micros;
+        }
+
+        public double getMeanMs() {
+            return count > 0 ? sumMicros / 1000.0 / count : 0.0;
+        }
+
+        /**
+         * Représentation JSON en millisecondes
+         */
+        public org.json.JSONObject toJson() throws org.json.JSONException {
+            org.json.JSONObject json = new org.json.JSONObject();
+            json.put("count", count);
+            json.put("mean", getMeanMs());
+            json.put("p50", p50Micros / 1000.0);
+            json.put("p90", p90Micros / 1000.0);
+            json.put("p99", p99Micros / 1000.0);
+            json.put("max", maxMicros / 1000.0);
+            return json;
+        }
+    }
+}
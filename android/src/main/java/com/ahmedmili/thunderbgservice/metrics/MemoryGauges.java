@@ -0,0 +1,176 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.util.Log;
+import com.ahmedmili.thunderbgservice.helpers.ImageLoaderHelper;
+import com.ahmedmili.thunderbgservice.helpers.ResourceCache;
+import com.ahmedmili.thunderbgservice.tasks.BackgroundTaskManager;
+import com.ahmedmili.thunderbgservice.tasks.TaskEventEmitter;
+import com.ahmedmili.thunderbgservice.tasks.TaskEventOutbox;
+import org.json.JSONObject;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jauges d'occupation mémoire: cache de bitmaps, cache de ressources, files de tâches et
+ * d'événements, heap Java et heap natif.
+ *
+ * Échantillonnées à intervalle configurable (persisté) tant que le service tourne;
+ * la dernière valeur et le maximum observé depuis le dernier reset sont exposés dans
+ * getMetrics() ("memory"). Intervalle 0: échantillonnage uniquement à la lecture.
+ */
+public class MemoryGauges {
+    private static final String TAG = "MemoryGauges";
+    private static final String PREFS_NAME = "thunder_bg_memory";
+    private static final String KEY_INTERVAL = "sample_interval_ms";
+    public static final long DEFAULT_INTERVAL_MS = 30000;
+    private static final long MIN_INTERVAL_MS = 1000;
+
+    // Indices des jauges (dernier relevé et maximum)
+    private static final int BITMAP_CACHE_BYTES = 0;
+    private static final int BITMAP_CACHE_ENTRIES = 1;
+    private static final int RESOURCE_CACHE_ENTRIES = 2;
+    private static final int TASK_QUEUE_DEPTH = 3;
+    private static final int EVENT_QUEUE_DEPTH = 4;
+    private static final int OUTBOX_PENDING = 5;
+    private static final int JAVA_HEAP_USED = 6;
+    private static final int NATIVE_HEAP_USED = 7;
+    private static final String[] NAMES = {
+        "bitmapCacheBytes", "bitmapCacheEntries", "resourceCacheEntries", "taskQueueDepth",
+        "eventQueueDepth", "outboxPending", "javaHeapUsedBytes", "nativeHeapUsedBytes"
+    };
+
+    private static MemoryGauges instance;
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final long[] last = new long[NAMES.length];
+    private final long[] peak = new long[NAMES.length];
+    private long javaHeapMax = 0;
+    private long nativeHeapSize = 0;
+    private long sampledAt = 0;
+    private long intervalMs;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> sampling;
+
+    private MemoryGauges(Context context) {
+        this.context = context.getApplicationContext();
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.intervalMs = prefs.getLong(KEY_INTERVAL, DEFAULT_INTERVAL_MS);
+    }
+
+    public static synchronized MemoryGauges getInstance(Context context) {
+        if (instance == null) {
+            instance = new MemoryGauges(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Démarre l'échantillonnage périodique (appelé au démarrage du service).
+     */
+    public synchronized void start() {
+        if (sampling != null || intervalMs <= 0) return;
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ThunderBgMemorySampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        sampling = scheduler.scheduleWithFixedDelay(this::sample, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (sampling != null) {
+            sampling.cancel(false);
+            sampling = null;
+        }
+    }
+
+    /**
+     * Change l'intervalle d'échantillonnage (0 = à la lecture uniquement).
+     */
+    public synchronized long setInterval(long interval) {
+        intervalMs = interval <= 0 ? 0 : Math.max(MIN_INTERVAL_MS, interval);
+        prefs.edit().putLong(KEY_INTERVAL, intervalMs).apply();
+        if (sampling != null) {
+            stop();
+            start();
+        }
+        return intervalMs;
+    }
+
+    public synchronized long getInterval() {
+        return intervalMs;
+    }
+
+    /**
+     * Relève toutes les jauges.
+     */
+    public void sample() {
+        long[] values = new long[NAMES.length];
+        try {
+            values[BITMAP_CACHE_BYTES] = ImageLoaderHelper.getCacheBytes();
+            values[BITMAP_CACHE_ENTRIES] = ImageLoaderHelper.getCacheSize();
+            values[RESOURCE_CACHE_ENTRIES] = ResourceCache.getStats().size;
+            values[TASK_QUEUE_DEPTH] = BackgroundTaskManager.getReadyQueueDepth();
+            values[EVENT_QUEUE_DEPTH] = TaskEventEmitter.getQueuedCount();
+            values[OUTBOX_PENDING] = TaskEventOutbox.getInstance(context).getPendingCount();
+            Runtime runtime = Runtime.getRuntime();
+            values[JAVA_HEAP_USED] = runtime.totalMemory() - runtime.freeMemory();
+            values[NATIVE_HEAP_USED] = Debug.getNativeHeapAllocatedSize();
+
+            synchronized (this) {
+                for (int i = 0; i < values.length; i++) {
+                    last[i] = values[i];
+                    peak[i] = Math.max(peak[i], values[i]);
+                }
+                javaHeapMax = runtime.maxMemory();
+                nativeHeapSize = Debug.getNativeHeapSize();
+                sampledAt = System.currentTimeMillis();
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Error sampling memory gauges", e);
+        }
+    }
+
+    public synchronized void reset() {
+        System.arraycopy(last, 0, peak, 0, last.length);
+    }
+
+    /**
+     * Dernier relevé et maxima, pour PerformanceMetrics.
+     * Sans échantillonnage périodique actif, un relevé est fait à la lecture.
+     */
+    public JSONObject getStats() {
+        boolean periodic;
+        synchronized (this) {
+            periodic = sampling != null && sampledAt > 0;
+        }
+        if (!periodic) {
+            sample();
+        }
+        JSONObject stats = new JSONObject();
+        try {
+            synchronized (this) {
+                JSONObject peaks = new JSONObject();
+                for (int i = 0; i < NAMES.length; i++) {
+                    stats.put(NAMES[i], last[i]);
+                    peaks.put(NAMES[i], peak[i]);
+                }
+                stats.put("javaHeapMaxBytes", javaHeapMax);
+                stats.put("nativeHeapSizeBytes", nativeHeapSize);
+                stats.put("peak", peaks);
+                stats.put("sampledAt", sampledAt);
+                stats.put("sampleIntervalMs", intervalMs);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Error building memory stats", e);
+        }
+        return stats;
+    }
+}
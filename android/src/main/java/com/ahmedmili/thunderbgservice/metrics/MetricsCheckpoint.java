@@ -0,0 +1,121 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import android.util.Log;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Zone de sauvegarde des métriques en mémoire mappée (filesDir/thunder_bg_metrics.ckpt).
+ *
+ * Deux régions alternées de REGION_SIZE octets: chaque écriture remplit la région inactive
+ * (données, puis longueur et CRC32, puis numéro de séquence en dernier), si bien qu'une
+ * région interrompue en cours d'écriture est rejetée à la lecture et que la précédente reste
+ * valide. Les pages mappées appartiennent au noyau: un arrêt brutal du process ne perd rien
+ * de ce qui a été écrit; force() (fsync) n'est nécessaire que contre une coupure d'alimentation.
+ *
+ * Format d'une région: [long seq][int length][int crc32][length octets de données]
+ */
+public final class MetricsCheckpoint {
+    private static final String TAG = "MetricsCheckpoint";
+    static final String FILE_NAME = "thunder_bg_metrics.ckpt";
+    static final int REGION_SIZE = 32 * 1024;
+    private static final int HEADER_SIZE = 8 + 4 + 4;
+    static final int MAX_PAYLOAD = REGION_SIZE - HEADER_SIZE;
+
+    private final MappedByteBuffer buffer;
+    private long seq;
+    private int activeRegion;
+
+    private MetricsCheckpoint(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        long seq0 = validSeq(0);
+        long seq1 = validSeq(1);
+        this.activeRegion = seq1 > seq0 ? 1 : 0;
+        this.seq = Math.max(Math.max(seq0, seq1), 0);
+    }
+
+    /**
+     * Ouvre (ou crée) la zone de sauvegarde, null si le mappage est impossible.
+     */
+    public static MetricsCheckpoint open(File dir) {
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, FILE_NAME), "rw")) {
+            FileChannel channel = file.getChannel();
+            // Le mappage reste valide après la fermeture du fichier
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * REGION_SIZE);
+            return new MetricsCheckpoint(buffer);
+        } catch (Exception e) {
+            Log.w(TAG, "Cannot map metrics checkpoint", e);
+            return null;
+        }
+    }
+
+    /**
+     * Contenu de la dernière région valide, null si aucune (premier lancement, zone invalidée).
+     */
+    public synchronized byte[] read() {
+        if (validSeq(activeRegion) <= 0) return null;
+        byte[] payload = payload(activeRegion);
+        return payload.length > 0 ? payload : null;
+    }
+
+    /**
+     * Écrit une nouvelle sauvegarde dans la région inactive.
+     * Une charge trop grande invalide la zone (la lecture retombera sur SharedPreferences).
+     * @return false si la charge dépasse MAX_PAYLOAD
+     */
+    public synchronized boolean write(byte[] payload) {
+        boolean fits = payload.length <= MAX_PAYLOAD;
+        int region = 1 - activeRegion;
+        int base = region * REGION_SIZE;
+        int length = fits ? payload.length : 0;
+
+        // Numéro de séquence invalidé d'abord: la région n'est plus lisible pendant l'écriture
+        buffer.putLong(base, 0);
+        ByteBuffer view = buffer.duplicate();
+        view.position(base + HEADER_SIZE);
+        view.put(payload, 0, length);
+        buffer.putInt(base + 8, length);
+        buffer.putInt(base + 12, crc(payload, length));
+        buffer.putLong(base, ++seq);
+        activeRegion = region;
+        return fits;
+    }
+
+    /**
+     * Synchronise les pages sur le stockage (appelé au flush périodique uniquement).
+     */
+    public synchronized void force() {
+        try {
+            buffer.force();
+        } catch (Exception e) {
+            Log.w(TAG, "Error syncing metrics checkpoint", e);
+        }
+    }
+
+    private long validSeq(int region) {
+        int base = region * REGION_SIZE;
+        long regionSeq = buffer.getLong(base);
+        int length = buffer.getInt(base + 8);
+        if (regionSeq <= 0 || length < 0 || length > MAX_PAYLOAD) return -1;
+        return buffer.getInt(base + 12) == crc(payload(region), length) ? regionSeq : -1;
+    }
+
+    private byte[] payload(int region) {
+        int base = region * REGION_SIZE;
+        byte[] payload = new byte[buffer.getInt(base + 8)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(base + HEADER_SIZE);
+        view.get(payload);
+        return payload;
+    }
+
+    private static int crc(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+}
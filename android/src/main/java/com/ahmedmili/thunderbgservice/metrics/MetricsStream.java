@@ -0,0 +1,158 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import android.content.Context;
+import android.util.Log;
+import com.ahmedmili.thunderbgservice.core.ThunderBgServicePlugin;
+import com.getcapacitor.JSObject;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diffusion périodique des métriques vers JS ("metricsUpdate") au lieu d'appels getMetrics().
+ *
+ * Un timer natif construit les métriques (limitées aux champs demandés, les sections
+ * coûteuses non demandées ne sont pas calculées) et n'envoie que les valeurs modifiées
+ * depuis l'envoi précédent; rien n'est envoyé si rien n'a changé.
+ * Le premier envoi contient toutes les valeurs (full = true).
+ *
+ * La diffusion s'arrête d'elle-même dès qu'aucun listener "metricsUpdate" n'est enregistré
+ * (JS dispose de LISTENER_GRACE_MS après subscribeMetrics() pour ajouter le sien).
+ */
+public class MetricsStream {
+    private static final String TAG = "MetricsStream";
+    public static final String EVENT_NAME = "metricsUpdate";
+    public static final long DEFAULT_INTERVAL_MS = 1000;
+    private static final long MIN_INTERVAL_MS = 250;
+    // Délai laissé à JS pour ajouter son listener après subscribeMetrics()
+    private static final long LISTENER_GRACE_MS = 5000;
+
+    private static MetricsStream instance;
+    private final Context context;
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> ticker;
+    private Set<String> fields;
+    private long intervalMs = DEFAULT_INTERVAL_MS;
+    private JSONObject lastSent;
+    private long seq = 0;
+    private long subscribedAt = 0;
+
+    private MetricsStream(Context context) {
+        this.context = context.getApplicationContext();
+        this.scheduler = InstrumentedExecutors.newScheduledThreadPool("metricsStream", 1);
+    }
+
+    public static synchronized MetricsStream getInstance(Context context) {
+        if (instance == null) {
+            instance = new MetricsStream(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Démarre (ou reconfigure) la diffusion.
+     * @param fields Champs de premier niveau de getMetrics() à diffuser, null ou vide = tous
+     * @return Intervalle effectif (ms)
+     */
+    public synchronized long subscribe(long interval, Set<String> fields) {
+        stopTicker();
+        this.intervalMs = Math.max(MIN_INTERVAL_MS, interval);
+        this.fields = fields == null || fields.isEmpty() ? null : new HashSet<>(fields);
+        this.lastSent = null;
+        this.seq = 0;
+        this.subscribedAt = System.currentTimeMillis();
+        ticker = scheduler.scheduleWithFixedDelay(this::tick, 0, intervalMs, TimeUnit.MILLISECONDS);
+        Log.i(TAG, "Metrics stream started (interval: " + intervalMs + "ms)");
+        return intervalMs;
+    }
+
+    public synchronized void unsubscribe() {
+        if (ticker != null) {
+            stopTicker();
+            Log.i(TAG, "Metrics stream stopped");
+        }
+    }
+
+    public synchronized boolean isActive() {
+        return ticker != null;
+    }
+
+    private void stopTicker() {
+        if (ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+        lastSent = null;
+    }
+
+    private synchronized void tick() {
+        if (ticker == null) return;
+        ThunderBgServicePlugin plugin = ThunderBgServicePlugin.getInstance();
+        if (plugin == null || !plugin.hasEventListeners(EVENT_NAME)) {
+            if (seq > 0 || System.currentTimeMillis() - subscribedAt > LISTENER_GRACE_MS) {
+                Log.i(TAG, "No metricsUpdate listener left, stopping stream");
+                stopTicker();
+            }
+            return;
+        }
+        try {
+            JSONObject current = PerformanceMetrics.getInstance(context).getMetricsAsJson(null, fields);
+            boolean full = lastSent == null;
+            JSONObject changes = full ? current : diff(lastSent, current);
+            lastSent = current;
+            if (changes.length() == 0) return;
+
+            JSObject event = new JSObject();
+            event.put("seq", ++seq);
+            event.put("timestamp", System.currentTimeMillis());
+            event.put("full", full);
+            event.put("changes", JSObject.fromJSONObject(changes));
+            plugin.emitTaskEvent(EVENT_NAME, event);
+        } catch (Exception e) {
+            Log.w(TAG, "Error pushing metrics", e);
+        }
+    }
+
+    /**
+     * Valeurs de current différentes de previous (récursif sur les objets).
+     * Une clé disparue est envoyée à null.
+     */
+    static JSONObject diff(JSONObject previous, JSONObject current) throws Exception {
+        JSONObject changes = new JSONObject();
+        Iterator<String> keys = current.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = current.get(key);
+            Object old = previous.opt(key);
+            if (value instanceof JSONObject && old instanceof JSONObject) {
+                JSONObject nested = diff((JSONObject) old, (JSONObject) value);
+                if (nested.length() > 0) changes.put(key, nested);
+            } else if (!sameValue(old, value)) {
+                changes.put(key, value);
+            }
+        }
+        Iterator<String> oldKeys = previous.keys();
+        while (oldKeys.hasNext()) {
+            String key = oldKeys.next();
+            if (!current.has(key)) changes.put(key, JSONObject.NULL);
+        }
+        return changes;
+    }
+
+    private static boolean sameValue(Object a, Object b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        if (a instanceof Number && b instanceof Number) {
+            return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        }
+        if (a instanceof JSONArray && b instanceof JSONArray) {
+            return a.toString().equals(b.toString());
+        }
+        return a.equals(b);
+    }
+}
@@ -0,0 +1,48 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+/**
+ * Étapes mesurées d'une mise à jour de notification, de l'appel update() côté plugin
+ * jusqu'à NotificationManagerCompat.notify().
+ */
+public enum NotificationStage {
+    /**
+     * De ThunderBgServicePlugin.update() à la réception de l'Intent par le service
+     */
+    DISPATCH("dispatch"),
+
+    /**
+     * Comparaison au dernier état affiché (analyse du JSON viewData / buttons s'il a changé)
+     */
+    PARSE("parse"),
+
+    /**
+     * Construction des RemoteViews depuis l'état (thème, bindings, images) et de la Notification
+     */
+    BUILD("build"),
+
+    /**
+     * Appel à NotificationManagerCompat.notify()
+     */
+    NOTIFY("notify"),
+
+    /**
+     * De bout en bout (depuis update() si l'horodatage est connu)
+     */
+    TOTAL("total"),
+
+    /**
+     * Attente dans la file de rendu (fusion et limitation de débit), de la réception au rendu.
+     * Ajoutée en dernier: les sauvegardes indexent les étapes par position
+     */
+    COALESCE("coalesce");
+
+    private final String value;
+
+    NotificationStage(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
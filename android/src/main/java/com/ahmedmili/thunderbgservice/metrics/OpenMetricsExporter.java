@@ -0,0 +1,347 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.util.Log;
+import com.ahmedmili.thunderbgservice.tasks.BackpressurePolicy;
+import com.ahmedmili.thunderbgservice.tasks.TaskEventEmitter;
+import org.json.JSONObject;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Export des métriques au format texte OpenMetrics (compatible Prometheus).
+ *
+ * Deux sorties, activables séparément (configuration persistée):
+ * - fichier: filesDir/thunder_bg_metrics/metrics.prom réécrit périodiquement,
+ *   les versions précédentes sont conservées en metrics.prom.1 .. .3
+ * - HTTP: GET /metrics sur 127.0.0.1 (builds debuggables uniquement),
+ *   accessible depuis le poste via "adb forward tcp:9464 tcp:9464"
+ *
+ * Les histogrammes de latence sont exposés avec des bornes fixes (en secondes),
+ * calculées à partir des buckets logarithmiques (précision ~12%).
+ */
+public class OpenMetricsExporter {
+    private static final String TAG = "OpenMetricsExporter";
+    private static final String PREFS_NAME = "thunder_bg_metrics_export";
+    private static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    private static final String DIR_NAME = "thunder_bg_metrics";
+    private static final String FILE_NAME = "metrics.prom";
+    private static final int MAX_ROTATED_FILES = 3;
+    public static final int DEFAULT_PORT = 9464;
+    public static final long DEFAULT_FILE_INTERVAL_MS = 60000;
+    private static final long MIN_FILE_INTERVAL_MS = 5000;
+    private static final long[] LATENCY_BOUNDS_MS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    private static OpenMetricsExporter instance;
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> fileExport;
+    private ServerSocket serverSocket;
+    private int httpPort = -1;
+
+    private OpenMetricsExporter(Context context) {
+        this.context = context.getApplicationContext();
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ThunderBgMetricsExport");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized OpenMetricsExporter getInstance(Context context) {
+        if (instance == null) {
+            instance = new OpenMetricsExporter(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Active/désactive les sorties et persiste la configuration.
+     */
+    public synchronized JSONObject configure(boolean fileEnabled, long fileIntervalMs, boolean httpEnabled, int port) {
+        prefs.edit()
+            .putBoolean("file_enabled", fileEnabled)
+            .putLong("file_interval_ms", fileIntervalMs)
+            .putBoolean("http_enabled", httpEnabled)
+            .putInt("http_port", port)
+            .apply();
+        apply(fileEnabled, fileIntervalMs, httpEnabled, port);
+        return getStatus();
+    }
+
+    /**
+     * Relance les sorties persistées (ex: redémarrage du service sans JS).
+     */
+    public synchronized void restore() {
+        apply(prefs.getBoolean("file_enabled", false),
+            prefs.getLong("file_interval_ms", DEFAULT_FILE_INTERVAL_MS),
+            prefs.getBoolean("http_enabled", false),
+            prefs.getInt("http_port", DEFAULT_PORT));
+    }
+
+    /**
+     * Arrête l'export fichier et le serveur HTTP (arrêt du service). La configuration
+     * persistée est conservée: restore() les relance au prochain démarrage.
+     */
+    public synchronized void stop() {
+        if (fileExport != null) {
+            fileExport.cancel(false);
+            fileExport = null;
+        }
+        stopHttp();
+    }
+
+    public synchronized JSONObject getStatus() {
+        JSONObject status = new JSONObject();
+        try {
+            status.put("fileEnabled", fileExport != null);
+            status.put("filePath", fileExport != null ? getFile().getAbsolutePath() : JSONObject.NULL);
+            status.put("httpEnabled", serverSocket != null);
+            status.put("httpPort", serverSocket != null ? httpPort : JSONObject.NULL);
+        } catch (Exception e) {
+            Log.w(TAG, "Error building export status", e);
+        }
+        return status;
+    }
+
+    private void apply(boolean fileEnabled, long fileIntervalMs, boolean httpEnabled, int port) {
+        if (fileExport != null) {
+            fileExport.cancel(false);
+            fileExport = null;
+        }
+        if (fileEnabled) {
+            long interval = Math.max(MIN_FILE_INTERVAL_MS, fileIntervalMs);
+            fileExport = scheduler.scheduleWithFixedDelay(this::writeFile, 0, interval, TimeUnit.MILLISECONDS);
+        }
+        stopHttp();
+        if (httpEnabled) {
+            startHttp(port > 0 ? port : DEFAULT_PORT);
+        }
+    }
+
+    /**
+     * Produit le texte OpenMetrics de toutes les métriques.
+     */
+    public String render() {
+        PerformanceMetrics metrics = PerformanceMetrics.getInstance(context);
+        PerformanceMetrics.MetricsData data = metrics.getMetrics();
+        StringBuilder out = new StringBuilder(4096);
+
+        counter(out, "thunderbg_notification_updates", "Notification updates", data.notificationUpdateCount);
+        counter(out, "thunderbg_location_updates", "Location updates", data.locationUpdateCount);
+        counter(out, "thunderbg_geofence_triggers", "Geofence transitions", data.geofenceTriggerCount);
+        counter(out, "thunderbg_change_detection_checks", "Emit-on-change checks", data.changeDetectionChecks);
+        counter(out, "thunderbg_change_detection_suppressed", "Values suppressed by emit-on-change", data.changeDetectionSuppressed);
+
+        Map<String, StripedCounter> named = metrics.getNamedCounters();
+        if (!named.isEmpty()) {
+            header(out, "thunderbg_named_counter", "counter", "Named plugin counters");
+            for (Map.Entry<String, StripedCounter> entry : named.entrySet()) {
+                sample(out, "thunderbg_named_counter_total", "name", entry.getKey(), entry.getValue().sum());
+            }
+        }
+
+        header(out, "thunderbg_task_events_shed", "counter", "Task events dropped by backpressure");
+        for (BackpressurePolicy policy : BackpressurePolicy.values()) {
+            sample(out, "thunderbg_task_events_shed_total", "policy", policy.getValue(), TaskEventEmitter.getShedCount(policy));
+        }
+        JSONObject backpressure = TaskEventEmitter.getBackpressureStats();
+        counter(out, "thunderbg_task_events_unobserved", "Task events dropped without JS subscription",
+            backpressure.optLong("unobserved", 0));
+
+        if (data.resourceCacheStats != null) {
+            counter(out, "thunderbg_resource_cache_hits", "Resource cache hits", data.resourceCacheStats.hits);
+            counter(out, "thunderbg_resource_cache_misses", "Resource cache misses", data.resourceCacheStats.misses);
+            gauge(out, "thunderbg_resource_cache_entries", "Resource cache entries", data.resourceCacheStats.size);
+        }
+        JSONObject memory = MemoryGauges.getInstance(context).getStats();
+        gauge(out, "thunderbg_bitmap_cache_bytes", "Bytes held by cached bitmaps", memory.optLong("bitmapCacheBytes", 0));
+        gauge(out, "thunderbg_task_queue_depth", "Task runs waiting for a scheduler thread", memory.optLong("taskQueueDepth", 0));
+        gauge(out, "thunderbg_event_queue_depth", "Task events waiting for the JS bridge", memory.optLong("eventQueueDepth", 0));
+        gauge(out, "thunderbg_java_heap_used_bytes", "Java heap in use", memory.optLong("javaHeapUsedBytes", 0));
+        gauge(out, "thunderbg_native_heap_used_bytes", "Native heap in use", memory.optLong("nativeHeapUsedBytes", 0));
+        gauge(out, "thunderbg_service_uptime_seconds", "Foreground service uptime", data.serviceUptime / 1000.0);
+        gauge(out, "thunderbg_battery_level_percent", "Battery level", data.currentBatteryLevel);
+
+        header(out, "thunderbg_task_duration_seconds", "histogram", "Task execution time, all tasks");
+        histogram(out, "thunderbg_task_duration_seconds", null, null, metrics.getTaskLatencyHistogram());
+        Map<String, LatencyHistogram> tasks = metrics.getTaskLatencyHistograms();
+        if (!tasks.isEmpty()) {
+            header(out, "thunderbg_task_duration_by_task_seconds", "histogram", "Task execution time per task");
+            for (Map.Entry<String, LatencyHistogram> entry : tasks.entrySet()) {
+                histogram(out, "thunderbg_task_duration_by_task_seconds", "task", entry.getKey(), entry.getValue());
+            }
+        }
+
+        header(out, "thunderbg_notification_stage_seconds", "histogram", "Notification update time per stage");
+        for (NotificationStage stage : NotificationStage.values()) {
+            histogram(out, "thunderbg_notification_stage_seconds", "stage", stage.getValue(),
+                metrics.getNotificationStageHistogram(stage));
+        }
+
+        out.append("# EOF\n");
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String family, String type, String help) {
+        out.append("# TYPE ").append(family).append(' ').append(type).append('\n');
+        out.append("# HELP ").append(family).append(' ').append(help).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String family, String help, long value) {
+        header(out, family, "counter", help);
+        out.append(family).append("_total ").append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String family, String help, double value) {
+        header(out, family, "gauge", help);
+        out.append(family).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String labelValue, long value) {
+        out.append(name).append('{').append(label).append("=\"");
+        escape(out, labelValue);
+        out.append("\"} ").append(value).append('\n');
+    }
+
+    private static void histogram(StringBuilder out, String family, String label, String labelValue, LatencyHistogram histogram) {
+        String labels = "";
+        if (label != null) {
+            StringBuilder escaped = new StringBuilder(label).append("=\"");
+            escape(escaped, labelValue);
+            labels = escaped.append("\",").toString();
+        }
+        for (long boundMs : LATENCY_BOUNDS_MS) {
+            out.append(family).append("_bucket{").append(labels).append("le=\"").append(boundMs / 1000.0).append("\"} ")
+                .append(histogram.getCountAtOrBelow(boundMs * 1000)).append('\n');
+        }
+        long count = histogram.getCount();
+        out.append(family).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(count).append('\n');
+        String plainLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        out.append(family).append("_count").append(plainLabels).append(' ').append(count).append('\n');
+        out.append(family).append("_sum").append(plainLabels).append(' ').append(histogram.getSum() / 1000000.0).append('\n');
+    }
+
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private File getFile() {
+        return new File(new File(context.getFilesDir(), DIR_NAME), FILE_NAME);
+    }
+
+    /**
+     * Écrit un nouvel instantané après rotation des précédents (écriture dans un .tmp puis renommage).
+     */
+    private void writeFile() {
+        try {
+            File file = getFile();
+            File dir = file.getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                Log.w(TAG, "Cannot create metrics export directory");
+                return;
+            }
+            File tmp = new File(dir, FILE_NAME + ".tmp");
+            try (OutputStream stream = new FileOutputStream(tmp)) {
+                stream.write(render().getBytes(StandardCharsets.UTF_8));
+            }
+            for (int i = MAX_ROTATED_FILES - 1; i >= 1; i--) {
+                File older = new File(dir, FILE_NAME + "." + i);
+                if (older.exists()) {
+                    older.renameTo(new File(dir, FILE_NAME + "." + (i + 1)));
+                }
+            }
+            if (file.exists()) {
+                file.renameTo(new File(dir, FILE_NAME + ".1"));
+            }
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Cannot rename metrics export file");
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Error writing metrics export file", e);
+        }
+    }
+
+    private void startHttp(int port) {
+        if ((context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            Log.w(TAG, "Metrics HTTP endpoint is only available in debuggable builds");
+            return;
+        }
+        try {
+            ServerSocket server = new ServerSocket(port, 4, InetAddress.getLoopbackAddress());
+            serverSocket = server;
+            httpPort = port;
+            Thread thread = new Thread(() -> serve(server), "ThunderBgMetricsHttp");
+            thread.setDaemon(true);
+            thread.start();
+            Log.i(TAG, "Metrics endpoint listening on 127.0.0.1:" + port + "/metrics");
+        } catch (Exception e) {
+            Log.e(TAG, "Error starting metrics endpoint on port " + port, e);
+        }
+    }
+
+    private void stopHttp() {
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (Exception ignored) {}
+            serverSocket = null;
+            httpPort = -1;
+        }
+    }
+
+    private void serve(ServerSocket server) {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                socket.setSoTimeout(2000);
+                BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                String requestLine = reader.readLine();
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    // Ignorer les en-têtes
+                }
+                boolean found = requestLine != null
+                    && (requestLine.startsWith("GET /metrics ") || requestLine.startsWith("GET / "));
+                byte[] body = (found ? render() : "Not Found\n").getBytes(StandardCharsets.UTF_8);
+                String head = (found ? "HTTP/1.1 200 OK" : "HTTP/1.1 404 Not Found") + "\r\n"
+                    + "Content-Type: " + (found ? CONTENT_TYPE : "text/plain; charset=utf-8") + "\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + "Connection: close\r\n\r\n";
+                OutputStream out = socket.getOutputStream();
+                out.write(head.getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+                out.flush();
+            } catch (Exception e) {
+                if (!server.isClosed()) {
+                    Log.w(TAG, "Error serving metrics request", e);
+                }
+            }
+        }
+    }
+}
@@ -5,42 +5,347 @@ import android.content.SharedPreferences;
 import android.os.BatteryManager;
 import android.os.SystemClock;
 import android.util.Log;
+import com.ahmedmili.thunderbgservice.state.AppState;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Collecteur de métriques de performance pour le plugin
  * Suit l'utilisation de la batterie, les temps d'exécution, etc.
+ *
+ * L'enregistrement ne touche que la mémoire (compteurs répartis, histogrammes sans verrou).
+ * Les valeurs sont écrites en une seule transaction SharedPreferences par flush(),
+ * appelé périodiquement et à l'arrêt du service.
+ *
+ * Chaque modification planifie aussi, sous CHECKPOINT_DELAY_MS, une sauvegarde dans une zone
+ * mappée (MetricsCheckpoint): les compteurs et l'histogramme global des tâches (taille bornée)
+ * y sont resérialisés; les histogrammes par tâche et par étape sont encodés au flush et leur
+ * dernier encodage est recopié tel quel. Un arrêt brutal du process ne perd que les dernières
+ * millisecondes des compteurs et des exécutions (seule la ventilation par tâche/étape peut
+ * dater du dernier flush), et le redémarrage relit cette zone sans analyser le XML des
+ * préférences. Si les histogrammes détaillés ne tiennent plus dans la zone, ils en sont omis
+ * (relus depuis les préférences au redémarrage) et le débordement est compté
+ * (getMetrics().checkpoint).
+ *
+ * En plus des totaux, chaque compteur et histogramme alimente des fenêtres glissantes
+ * (1m, 5m, 1h, en mémoire uniquement) consultables via getMetrics({window}).
  */
 public class PerformanceMetrics {
     private static final String TAG = "PerformanceMetrics";
     private static final String PREFS_NAME = "thunder_bg_metrics";
+    private static final String KEY_TASK_LATENCY = "task_latency_histogram";
+    private static final String KEY_TASK_LATENCY_PREFIX = KEY_TASK_LATENCY + "_";
+    private static final String KEY_COUNTER_PREFIX = "counter.";
+    private static final String KEY_NOTIFICATION_STAGE_PREFIX = "notification_stage_histogram_";
+    private static final long FLUSH_INTERVAL_SECONDS = 30;
+    private static final long CHECKPOINT_DELAY_MS = 50;
+    private static final int CHECKPOINT_VERSION = 3;
+    
+    // Indices des compteurs dans les fenêtres glissantes
+    private static final int WINDOW_NOTIFICATION_UPDATES = 0;
+    private static final int WINDOW_LOCATION_UPDATES = 1;
+    private static final int WINDOW_GEOFENCE_TRIGGERS = 2;
+    private static final int WINDOW_CHANGE_CHECKS = 3;
+    private static final int WINDOW_CHANGE_SUPPRESSED = 4;
+    private static final int WINDOW_TASK_FAILURES = 5;
+    private static final int WINDOW_NOTIFICATION_RENDERS = 6;
+    private static final int WINDOW_NOTIFICATION_SKIPPED = 7;
+    private static final int WINDOW_NOTIFICATION_COALESCED = 8;
+    private static final int WINDOW_GEOFENCE_ENTER = 9;
+    private static final int WINDOW_GEOFENCE_EXIT = 10;
+    private static final int WINDOW_COUNTER_COUNT = 11;
     
     private static PerformanceMetrics instance;
     private final Context context;
     private final SharedPreferences prefs;
     
+    // Latences d'exécution des tâches (globale et par taskId), en microsecondes
+    private final LatencyHistogram taskLatency = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> taskLatencies = new ConcurrentHashMap<>();
+    
+    // Latences des mises à jour de notification, par étape (indexées par NotificationStage.ordinal())
+    private final LatencyHistogram[] notificationStages = new LatencyHistogram[NotificationStage.values().length];
+    
     // Compteurs
-    private final AtomicLong taskExecutionCount = new AtomicLong(0);
-    private final AtomicLong taskExecutionTime = new AtomicLong(0); // en millisecondes
-    private final AtomicLong notificationUpdateCount = new AtomicLong(0);
-    private final AtomicLong locationUpdateCount = new AtomicLong(0);
-    private final AtomicLong geofenceTriggerCount = new AtomicLong(0);
+    private final StripedCounter notificationUpdateCount = new StripedCounter();
+    private final StripedCounter locationUpdateCount = new StripedCounter();
+    private final StripedCounter geofenceTriggerCount = new StripedCounter();
+    private final StripedCounter changeDetectionChecks = new StripedCounter();
+    private final StripedCounter changeDetectionSuppressed = new StripedCounter();
+    
+    // Taille sérialisée des notifications mises à jour (échantillonnée, en mémoire)
+    private final AtomicLong notificationParcelBytes = new AtomicLong();
+    private final AtomicLong notificationParcelBytesMax = new AtomicLong();
+    
+    // Compteurs nommés (ex: "geofence_enter_count"), indexés par id
+    private final Map<String, StripedCounter> namedCounters = new ConcurrentHashMap<>();
+    private final Map<String, StripedCounter> geofenceTypeCounters = new ConcurrentHashMap<>();
+    
+    // Fenêtres glissantes: 1m (tranches de 10s), 5m (30s), 1h (5min)
+    private final RollingWindow[] windows;
+    
+    // Ventilation par AppState (getMetrics({groupBy: "state"}))
+    private final StateBreakdown stateBreakdown;
+    
+    // Détection de régressions de latence et de rafales d'échecs ("performanceAlert")
+    private final RegressionDetector regressionDetector;
+    
+    private final ScheduledExecutorService flushScheduler;
+    private long lastFlushSignature = Long.MIN_VALUE;
+    
+    // Sauvegarde en mémoire mappée, écrite CHECKPOINT_DELAY_MS après chaque modification
+    private final MetricsCheckpoint checkpoint;
+    private final AtomicBoolean checkpointPending = new AtomicBoolean(false);
+    // Histogrammes par tâche et par étape encodés au dernier flush, recopiés dans chaque sauvegarde
+    private byte[] checkpointHistograms;
+    private volatile long checkpointWrites = 0;
+    private volatile long checkpointOverflows = 0;
+    private volatile int checkpointBytes = 0;
+    private volatile boolean checkpointHistogramsIncluded = true;
+    private boolean checkpointWriteFailed = false;
     
     // Timestamps
     private long serviceStartTime = 0;
+    private long lastServiceDuration = 0;
     private long lastBatteryCheckTime = 0;
     private int initialBatteryLevel = -1;
     
     private PerformanceMetrics(Context context) {
         this.context = context.getApplicationContext();
         this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long now = SystemClock.elapsedRealtime();
+        this.windows = new RollingWindow[] {
+            new RollingWindow("1m", 60000L, 6, WINDOW_COUNTER_COUNT, now),
+            new RollingWindow("5m", 300000L, 10, WINDOW_COUNTER_COUNT, now),
+            new RollingWindow("1h", 3600000L, 12, WINDOW_COUNTER_COUNT, now)
+        };
+        this.stateBreakdown = new StateBreakdown(now);
+        this.regressionDetector = RegressionDetector.getInstance(this.context);
+        
+        for (NotificationStage stage : NotificationStage.values()) {
+            notificationStages[stage.ordinal()] = new LatencyHistogram();
+        }
+        
+        // Restaurer depuis la sauvegarde mappée (sans analyser le XML des préférences),
+        // sinon depuis les préférences (premier lancement, sauvegarde invalide)
+        checkpoint = MetricsCheckpoint.open(this.context.getFilesDir());
+        if (!restoreFromCheckpoint()) {
+            restoreFromPrefs();
+        }
         
-        // Restaurer les compteurs depuis les préférences
-        taskExecutionCount.set(prefs.getLong("task_execution_count", 0));
-        taskExecutionTime.set(prefs.getLong("task_execution_time", 0));
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ThunderBgMetricsFlush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushScheduler.scheduleWithFixedDelay(this::flush,
+            FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+    
+    private void restoreFromPrefs() {
+        restoreHistogramsFromPrefs();
         notificationUpdateCount.set(prefs.getLong("notification_update_count", 0));
         locationUpdateCount.set(prefs.getLong("location_update_count", 0));
         geofenceTriggerCount.set(prefs.getLong("geofence_trigger_count", 0));
+        lastServiceDuration = prefs.getLong("last_service_duration", 0);
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            String key = entry.getKey();
+            if (!(entry.getValue() instanceof Long)) continue;
+            if (key.startsWith(KEY_COUNTER_PREFIX)) {
+                counter(key.substring(KEY_COUNTER_PREFIX.length())).set((Long) entry.getValue());
+            } else if (key.startsWith("geofence_") && key.endsWith("_count") && !key.equals("geofence_trigger_count")) {
+                // Ancien format: une clé par type d'événement, écrite à chaque déclenchement
+                counter(key).add((Long) entry.getValue());
+            }
+        }
+    }
+    
+    private void restoreHistogramsFromPrefs() {
+        taskLatency.add(LatencyHistogram.decode(prefs.getString(KEY_TASK_LATENCY, null)));
+        restoreDetailHistogramsFromPrefs();
+    }
+    
+    /**
+     * Histogrammes par étape et par tâche (l'histogramme global vient de la sauvegarde mappée).
+     */
+    private void restoreDetailHistogramsFromPrefs() {
+        for (NotificationStage stage : NotificationStage.values()) {
+            notificationStages[stage.ordinal()].add(LatencyHistogram.decode(
+                prefs.getString(KEY_NOTIFICATION_STAGE_PREFIX + stage.getValue(), null)));
+        }
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getKey().startsWith(KEY_TASK_LATENCY_PREFIX) && entry.getValue() instanceof String) {
+                taskLatencies.put(entry.getKey().substring(KEY_TASK_LATENCY_PREFIX.length()),
+                    LatencyHistogram.decode((String) entry.getValue()));
+            }
+        }
+    }
+    
+    /**
+     * @return false si aucune sauvegarde exploitable (rien n'est alors modifié)
+     */
+    private boolean restoreFromCheckpoint() {
+        byte[] payload = checkpoint != null ? checkpoint.read() : null;
+        if (payload == null) return false;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            if (in.readInt() != CHECKPOINT_VERSION) return false;
+            long notifications = in.readLong();
+            long locations = in.readLong();
+            long geofences = in.readLong();
+            long serviceDuration = in.readLong();
+            Map<String, Long> counters = new HashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                counters.put(in.readUTF(), in.readLong());
+            }
+            LatencyHistogram latency = LatencyHistogram.decode(in.readUTF());
+            boolean hasHistograms = in.readBoolean();
+            LatencyHistogram[] stages = new LatencyHistogram[0];
+            Map<String, LatencyHistogram> tasks = new HashMap<>();
+            if (hasHistograms) {
+                stages = new LatencyHistogram[in.readInt()];
+                for (int i = 0; i < stages.length; i++) {
+                    stages[i] = LatencyHistogram.decode(in.readUTF());
+                }
+                for (int i = in.readInt(); i > 0; i--) {
+                    tasks.put(in.readUTF(), LatencyHistogram.decode(in.readUTF()));
+                }
+            }
+            
+            notificationUpdateCount.set(notifications);
+            locationUpdateCount.set(locations);
+            geofenceTriggerCount.set(geofences);
+            lastServiceDuration = serviceDuration;
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                counter(entry.getKey()).set(entry.getValue());
+            }
+            // L'histogramme global, écrit à chaque sauvegarde, fait foi pour le nombre et la durée
+            // des exécutions; la ventilation par tâche peut dater du dernier flush
+            taskLatency.add(latency);
+            if (hasHistograms) {
+                for (int i = 0; i < stages.length && i < notificationStages.length; i++) {
+                    notificationStages[i].add(stages[i]);
+                }
+                taskLatencies.putAll(tasks);
+            } else {
+                // Histogrammes omis (trop grands): écrits dans les préférences au même rythme
+                restoreDetailHistogramsFromPrefs();
+            }
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Invalid metrics checkpoint, falling back to preferences", e);
+            return false;
+        }
+    }
+    
+    /**
+     * Planifie l'écriture de la sauvegarde mappée (une seule en attente à la fois).
+     */
+    private void scheduleCheckpoint() {
+        if (checkpoint != null && !checkpointPending.get() && checkpointPending.compareAndSet(false, true)) {
+            flushScheduler.schedule(() -> writeCheckpoint(false), CHECKPOINT_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * @param encodeHistograms true au flush et au reset: réencode les histogrammes par tâche et
+     *                         par étape, sinon leur dernier encodage est recopié
+     */
+    private synchronized void writeCheckpoint(boolean encodeHistograms) {
+        checkpointPending.set(false);
+        if (checkpoint == null) return;
+        try {
+            if (encodeHistograms || checkpointHistograms == null) {
+                checkpointHistograms = encodeHistograms();
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 + checkpointHistograms.length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeLong(notificationUpdateCount.sum());
+            out.writeLong(locationUpdateCount.sum());
+            out.writeLong(geofenceTriggerCount.sum());
+            out.writeLong(lastServiceDuration);
+            List<Map.Entry<String, StripedCounter>> counters = new ArrayList<>(namedCounters.entrySet());
+            out.writeInt(counters.size());
+            for (Map.Entry<String, StripedCounter> entry : counters) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().sum());
+            }
+            out.writeUTF(taskLatency.encode());
+            boolean withHistograms = bytes.size() + 1 + checkpointHistograms.length <= MetricsCheckpoint.MAX_PAYLOAD;
+            out.writeBoolean(withHistograms);
+            if (withHistograms) {
+                out.write(checkpointHistograms);
+            }
+            // Débordements comptés à la transition, pas à chaque sauvegarde
+            if (withHistograms != checkpointHistogramsIncluded) {
+                checkpointHistogramsIncluded = withHistograms;
+                if (withHistograms) {
+                    Log.i(TAG, "Metrics checkpoint includes histograms again");
+                } else {
+                    checkpointOverflows++;
+                    Log.w(TAG, "Metrics histograms too large for checkpoint (" + checkpointHistograms.length
+                        + " bytes), restored from preferences instead");
+                }
+            }
+            boolean written = checkpoint.write(bytes.toByteArray());
+            if (!written && !checkpointWriteFailed) {
+                checkpointOverflows++;
+                Log.w(TAG, "Metrics checkpoint too large (" + bytes.size() + " bytes), relying on preferences");
+            }
+            checkpointWriteFailed = !written;
+            checkpointWrites++;
+            checkpointBytes = bytes.size();
+        } catch (Exception e) {
+            Log.w(TAG, "Error writing metrics checkpoint", e);
+        }
+    }
+    
+    private byte[] encodeHistograms() throws java.io.IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(notificationStages.length);
+        for (LatencyHistogram histogram : notificationStages) {
+            out.writeUTF(histogram.encode());
+        }
+        List<Map.Entry<String, LatencyHistogram>> tasks = new ArrayList<>(taskLatencies.entrySet());
+        out.writeInt(tasks.size());
+        for (Map.Entry<String, LatencyHistogram> entry : tasks) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue().encode());
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * État de la sauvegarde mappée: écritures, taille de la dernière, débordements
+     * (passages à une sauvegarde sans histogrammes détaillés ou refusée).
+     */
+    public org.json.JSONObject getCheckpointStats() {
+        org.json.JSONObject json = new org.json.JSONObject();
+        try {
+            json.put("enabled", checkpoint != null);
+            json.put("writes", checkpointWrites);
+            json.put("bytes", checkpointBytes);
+            json.put("maxBytes", MetricsCheckpoint.MAX_PAYLOAD);
+            json.put("histogramsIncluded", checkpointHistogramsIncluded);
+            json.put("overflows", checkpointOverflows);
+        } catch (Exception e) {
+            Log.w(TAG, "Error building checkpoint stats", e);
+        }
+        return json;
     }
     
     public static synchronized PerformanceMetrics getInstance(Context context) {
@@ -64,9 +369,9 @@ public class PerformanceMetrics {
      * Arrête le tracking du service
      */
     public void stopServiceTracking() {
-        long serviceDuration = SystemClock.elapsedRealtime() - serviceStartTime;
-        saveMetric("last_service_duration", serviceDuration);
+        lastServiceDuration = SystemClock.elapsedRealtime() - serviceStartTime;
         serviceStartTime = 0;
+        flush();
         Log.i(TAG, "Service tracking stopped");
     }
     
@@ -74,46 +379,148 @@ public class PerformanceMetrics {
      * Enregistre l'exécution d'une tâche
      */
     public void recordTaskExecution(long executionTimeMs) {
-        taskExecutionCount.incrementAndGet();
-        taskExecutionTime.addAndGet(executionTimeMs);
-        
-        // Sauvegarder périodiquement
-        if (taskExecutionCount.get() % 10 == 0) {
-            saveMetrics();
-        }
+        recordTaskLatency(null, executionTimeMs * 1000);
     }
     
     /**
      * Enregistre l'exécution d'une tâche avec ID (pour tracking par tâche)
      */
     public void recordTaskExecution(String taskId, long executionTimeMs) {
-        recordTaskExecution(executionTimeMs);
-        // Sauvegarder aussi par taskId pour statistiques détaillées
-        saveMetric("task_" + taskId + "_count", 
-            prefs.getLong("task_" + taskId + "_count", 0) + 1);
-        saveMetric("task_" + taskId + "_time", 
-            prefs.getLong("task_" + taskId + "_time", 0) + executionTimeMs);
+        recordTaskLatency(taskId, executionTimeMs * 1000);
+    }
+    
+    /**
+     * Enregistre l'exécution d'une tâche mesurée avec System.nanoTime()
+     */
+    public void recordTaskExecutionNanos(String taskId, long executionTimeNs) {
+        recordTaskLatency(taskId, executionTimeNs / 1000);
+    }
+    
+    private void recordTaskLatency(String taskId, long micros) {
+        taskLatency.record(micros);
+        if (taskId != null) {
+            LatencyHistogram histogram = taskLatencies.get(taskId);
+            if (histogram == null) {
+                LatencyHistogram created = new LatencyHistogram();
+                histogram = taskLatencies.putIfAbsent(taskId, created);
+                if (histogram == null) histogram = created;
+            }
+            histogram.record(micros);
+        }
+        long now = SystemClock.elapsedRealtime();
+        for (RollingWindow window : windows) {
+            window.recordLatency(taskId, micros, now);
+        }
+        stateBreakdown.increment(StateBreakdown.TASK_RUNS);
+        stateBreakdown.add(StateBreakdown.TASK_TIME_US, micros);
+        regressionDetector.recordLatency(taskId, micros);
+        scheduleCheckpoint();
+    }
+    
+    /**
+     * Enregistre l'échec d'une exécution de tâche (exception levée par execute())
+     */
+    public void recordTaskFailure(String taskId) {
+        counter("task_failure_count").increment();
+        recordInWindows(WINDOW_TASK_FAILURES);
+        regressionDetector.recordFailure(taskId);
+        scheduleCheckpoint();
+    }
+    
+    private void recordInWindows(int counter) {
+        long now = SystemClock.elapsedRealtime();
+        for (RollingWindow window : windows) {
+            window.increment(counter, now);
+        }
     }
     
     /**
      * Enregistre une mise à jour de notification
      */
     public void recordNotificationUpdate() {
-        notificationUpdateCount.incrementAndGet();
+        notificationUpdateCount.increment();
+        recordInWindows(WINDOW_NOTIFICATION_UPDATES);
+        stateBreakdown.increment(StateBreakdown.NOTIFICATION_UPDATES);
+        scheduleCheckpoint();
+    }
+    
+    /**
+     * Enregistre la durée d'une étape de mise à jour de notification
+     */
+    public void recordNotificationStage(NotificationStage stage, long durationNs) {
+        notificationStages[stage.ordinal()].record(durationNs / 1000);
+        scheduleCheckpoint();
+    }
+    
+    /**
+     * Enregistre le rendu incrémental d'une notification
+     * @param changedProperties Propriétés de vues modifiées depuis le rendu précédent
+     * @param totalProperties Propriétés de vues émises dans les RemoteViews
+     */
+    public void recordNotificationRender(int changedProperties, int totalProperties) {
+        counter("notification_render_count").increment();
+        recordInWindows(WINDOW_NOTIFICATION_RENDERS);
+        counter("notification_properties_changed").add(changedProperties);
+        counter("notification_properties_total").add(totalProperties);
+        scheduleCheckpoint();
+    }
+    
+    /**
+     * Enregistre l'usage du plan de liaison d'une mise à jour de notification
+     * @param compiled true si des vues ou des boutons ont dû être résolus, false si tout était déjà compilé
+     */
+    public void recordBindingPlan(boolean compiled) {
+        counter(compiled ? "notification_binding_compiled" : "notification_binding_reused").increment();
+        scheduleCheckpoint();
+    }
+    
+    /**
+     * Enregistre une mise à jour de notification sans effet (identique à l'état affiché)
+     */
+    public void recordNotificationSkipped() {
+        counter("notification_update_skipped").increment();
+        recordInWindows(WINDOW_NOTIFICATION_SKIPPED);
+        scheduleCheckpoint();
+    }
+    
+    /**
+     * Enregistre une mise à jour de notification fusionnée avec une autre en attente de rendu
+     */
+    public void recordNotificationCoalesced() {
+        counter("notification_update_coalesced").increment();
+        recordInWindows(WINDOW_NOTIFICATION_COALESCED);
+        scheduleCheckpoint();
+    }
+    
+    /**
+     * Enregistre la taille sérialisée d'une notification (octets)
+     */
+    public void recordNotificationParcelSize(long bytes) {
+        notificationParcelBytes.set(bytes);
+        long max;
+        while (bytes > (max = notificationParcelBytesMax.get())) {
+            if (notificationParcelBytesMax.compareAndSet(max, bytes)) break;
+        }
     }
     
     /**
      * Enregistre une mise à jour de localisation
      */
     public void recordLocationUpdate() {
-        locationUpdateCount.incrementAndGet();
+        locationUpdateCount.increment();
+        recordInWindows(WINDOW_LOCATION_UPDATES);
+        stateBreakdown.increment(StateBreakdown.LOCATION_UPDATES);
+        scheduleCheckpoint();
     }
     
     /**
      * Enregistre un déclenchement de géofence
      */
     public void recordGeofenceTrigger() {
-        geofenceTriggerCount.incrementAndGet();
+        geofenceTriggerCount.increment();
+        recordInWindows(WINDOW_GEOFENCE_TRIGGERS);
+        stateBreakdown.increment(StateBreakdown.GEOFENCE_TRIGGERS);
+        scheduleCheckpoint();
     }
     
     /**
@@ -121,9 +528,74 @@ public class PerformanceMetrics {
      */
     public void recordGeofenceTrigger(String eventType) {
         recordGeofenceTrigger();
-        // Sauvegarder aussi par type d'événement
-        saveMetric("geofence_" + eventType + "_count",
-            prefs.getLong("geofence_" + eventType + "_count", 0) + 1);
+        // Compter aussi par type d'événement
+        StripedCounter counter = geofenceTypeCounters.get(eventType);
+        if (counter == null) {
+            counter = counter("geofence_" + eventType + "_count");
+            geofenceTypeCounters.put(eventType, counter);
+        }
+        counter.increment();
+        if ("ENTER".equals(eventType)) {
+            recordInWindows(WINDOW_GEOFENCE_ENTER);
+        } else if ("EXIT".equals(eventType)) {
+            recordInWindows(WINDOW_GEOFENCE_EXIT);
+        }
+    }
+    
+    /**
+     * Temps CPU consommé par un composant du plugin (attribué à l'état courant)
+     */
+    public void recordCpuTime(long cpuNs) {
+        if (cpuNs > 0) stateBreakdown.add(StateBreakdown.CPU_NS, cpuNs);
+    }
+    
+    /**
+     * Appelé par StateManager à chaque transition
+     */
+    public void onStateChanged(AppState state) {
+        stateBreakdown.setState(state, SystemClock.elapsedRealtime());
+    }
+    
+    /**
+     * Métriques ventilées par état (en mémoire, depuis le démarrage ou le dernier reset)
+     */
+    public org.json.JSONObject getStateBreakdown() {
+        org.json.JSONObject json = new org.json.JSONObject();
+        try {
+            json = stateBreakdown.toJson(SystemClock.elapsedRealtime());
+        } catch (Exception e) {
+            Log.w(TAG, "Error building state breakdown", e);
+        }
+        return json;
+    }
+    
+    public AppState getCurrentState() {
+        return stateBreakdown.getState();
+    }
+    
+    /**
+     * Obtient (ou crée) un compteur nommé, persisté par flush().
+     */
+    public StripedCounter counter(String id) {
+        StripedCounter counter = namedCounters.get(id);
+        if (counter == null) {
+            StripedCounter created = new StripedCounter();
+            counter = namedCounters.putIfAbsent(id.intern(), created);
+            if (counter == null) counter = created;
+        }
+        return counter;
+    }
+    
+    /**
+     * Enregistre une vérification du mode "émettre sur changement"
+     */
+    public void recordChangeDetection(boolean suppressed) {
+        changeDetectionChecks.increment();
+        recordInWindows(WINDOW_CHANGE_CHECKS);
+        if (suppressed) {
+            changeDetectionSuppressed.increment();
+            recordInWindows(WINDOW_CHANGE_SUPPRESSED);
+        }
     }
     
     /**
@@ -132,21 +604,34 @@ public class PerformanceMetrics {
     public MetricsData getMetrics() {
         MetricsData data = new MetricsData();
         
-        data.taskExecutionCount = taskExecutionCount.get();
-        data.totalTaskExecutionTime = taskExecutionTime.get();
-        data.avgTaskExecutionTime = data.taskExecutionCount > 0 
-            ? (double) data.totalTaskExecutionTime / data.taskExecutionCount 
-            : 0.0;
+        data.taskLatency = taskLatency.snapshot();
+        data.taskExecutionCount = data.taskLatency.count;
+        data.totalTaskExecutionTime = data.taskLatency.sumMicros / 1000;
+        data.avgTaskExecutionTime = data.taskLatency.getMeanMs();
+        data.taskLatencies = new HashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : taskLatencies.entrySet()) {
+            data.taskLatencies.put(entry.getKey(), entry.getValue().snapshot());
+        }
         
-        data.notificationUpdateCount = notificationUpdateCount.get();
-        data.locationUpdateCount = locationUpdateCount.get();
-        data.geofenceTriggerCount = geofenceTriggerCount.get();
+        data.notificationUpdateCount = notificationUpdateCount.sum();
+        data.notificationStageLatencies = new java.util.LinkedHashMap<>();
+        for (NotificationStage stage : NotificationStage.values()) {
+            data.notificationStageLatencies.put(stage.getValue(), notificationStages[stage.ordinal()].snapshot());
+        }
+        data.locationUpdateCount = locationUpdateCount.sum();
+        data.geofenceTriggerCount = geofenceTriggerCount.sum();
+        
+        data.changeDetectionChecks = changeDetectionChecks.sum();
+        data.changeDetectionSuppressed = changeDetectionSuppressed.sum();
+        data.changeSuppressionRatio = data.changeDetectionChecks > 0
+            ? (double) data.changeDetectionSuppressed / data.changeDetectionChecks
+            : 0.0;
         
         // Service duration
         if (serviceStartTime > 0) {
             data.serviceUptime = SystemClock.elapsedRealtime() - serviceStartTime;
         } else {
-            data.serviceUptime = prefs.getLong("last_service_duration", 0);
+            data.serviceUptime = lastServiceDuration;
         }
         
         // Battery metrics
@@ -161,10 +646,56 @@ public class PerformanceMetrics {
         return data;
     }
     
+    LatencyHistogram getTaskLatencyHistogram() {
+        return taskLatency;
+    }
+    
+    Map<String, LatencyHistogram> getTaskLatencyHistograms() {
+        return taskLatencies;
+    }
+    
+    LatencyHistogram getNotificationStageHistogram(NotificationStage stage) {
+        return notificationStages[stage.ordinal()];
+    }
+    
+    Map<String, StripedCounter> getNamedCounters() {
+        return namedCounters;
+    }
+    
+    /**
+     * Indique si une fenêtre glissante porte ce nom ("1m", "5m" ou "1h")
+     */
+    public boolean hasWindow(String name) {
+        return findWindow(name) != null;
+    }
+    
+    private RollingWindow findWindow(String name) {
+        for (RollingWindow window : windows) {
+            if (window.getName().equals(name)) return window;
+        }
+        return null;
+    }
+    
     /**
      * Convertit MetricsData en JSONObject pour retour au JS
      */
     public org.json.JSONObject getMetricsAsJson() {
+        return getMetricsAsJson(null);
+    }
+    
+    /**
+     * Comme getMetricsAsJson(), mais les compteurs et percentiles sont ceux de la
+     * fenêtre glissante demandée (les jauges restent instantanées), avec des taux par minute.
+     */
+    public org.json.JSONObject getMetricsAsJson(String windowName) {
+        return getMetricsAsJson(windowName, null);
+    }
+    
+    /**
+     * Comme getMetricsAsJson(windowName), limité aux champs de premier niveau demandés
+     * (null = tous). Les sections externes non demandées ne sont pas calculées.
+     */
+    public org.json.JSONObject getMetricsAsJson(String windowName, java.util.Set<String> fields) {
         try {
             MetricsData data = getMetrics();
             org.json.JSONObject json = new org.json.JSONObject();
@@ -180,6 +711,38 @@ public class PerformanceMetrics {
             json.put("currentBatteryLevel", data.currentBatteryLevel);
             json.put("batteryDrain", data.batteryDrain);
             
+            // Percentiles de latence des tâches (ms)
+            json.put("taskLatency", data.taskLatency.toJson());
+            org.json.JSONObject tasks = new org.json.JSONObject();
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : data.taskLatencies.entrySet()) {
+                tasks.put(entry.getKey(), entry.getValue().toJson());
+            }
+            json.put("tasks", tasks);
+            
+            // Latences des mises à jour de notification par étape (ms)
+            org.json.JSONObject notificationLatency = new org.json.JSONObject();
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : data.notificationStageLatencies.entrySet()) {
+                notificationLatency.put(entry.getKey(), entry.getValue().toJson());
+            }
+            json.put("notificationLatency", notificationLatency);
+            
+            // Rendu incrémental des notifications
+            org.json.JSONObject notificationRender = new org.json.JSONObject();
+            long renders = counter("notification_render_count").sum();
+            long changed = counter("notification_properties_changed").sum();
+            long emitted = counter("notification_properties_total").sum();
+            notificationRender.put("renders", renders);
+            notificationRender.put("skipped", counter("notification_update_skipped").sum());
+            notificationRender.put("coalesced", counter("notification_update_coalesced").sum());
+            notificationRender.put("bindingsCompiled", counter("notification_binding_compiled").sum());
+            notificationRender.put("bindingsReused", counter("notification_binding_reused").sum());
+            notificationRender.put("propertiesChanged", changed);
+            notificationRender.put("propertiesEmitted", emitted);
+            notificationRender.put("changedRatio", emitted > 0 ? (double) changed / emitted : 0.0);
+            notificationRender.put("parcelBytes", notificationParcelBytes.get());
+            notificationRender.put("parcelBytesMax", notificationParcelBytesMax.get());
+            json.put("notificationRender", notificationRender);
+            
             // Resource cache stats
             if (data.resourceCacheStats != null) {
                 org.json.JSONObject cacheStats = new org.json.JSONObject();
@@ -190,6 +753,63 @@ public class PerformanceMetrics {
                 json.put("resourceCache", cacheStats);
             }
             
+            // Liaisons des boutons de notification (récepteurs et PendingIntents en cache)
+            json.put("buttonCache", com.ahmedmili.thunderbgservice.helpers.ButtonBindingCache.getStats());
+            
+            // Mode "émettre sur changement"
+            org.json.JSONObject changeDetection = new org.json.JSONObject();
+            changeDetection.put("checked", data.changeDetectionChecks);
+            changeDetection.put("suppressed", data.changeDetectionSuppressed);
+            changeDetection.put("suppressionRatio", data.changeSuppressionRatio);
+            json.put("changeDetection", changeDetection);
+            
+            // Attribution d'énergie par composant
+            if (fields == null || fields.contains("energy")) {
+                json.put("energy", EnergyModel.getInstance(context).getStats());
+            }
+            
+            // Occupation mémoire (caches, files, heaps)
+            if (fields == null || fields.contains("memory")) {
+                json.put("memory", MemoryGauges.getInstance(context).getStats());
+            }
+            
+            // Durées de démarrage du service et redémarrages
+            if (fields == null || fields.contains("startup")) {
+                json.put("startup", StartupTimer.getInstance(context).getStats());
+            }
+            
+            // Santé des executors (threads, files, attente, exécution, rejets)
+            if (fields == null || fields.contains("executors")) {
+                json.put("executors", InstrumentedExecutors.getStats());
+            }
+            
+            // Sauvegarde mappée (taille, débordements)
+            if (fields == null || fields.contains("checkpoint")) {
+                json.put("checkpoint", getCheckpointStats());
+            }
+            
+            // Contre-pression des événements de tâches
+            if (fields == null || fields.contains("eventBackpressure")) {
+                json.put("eventBackpressure", com.ahmedmili.thunderbgservice.tasks.TaskEventEmitter.getBackpressureStats());
+            }
+            
+            RollingWindow window = windowName != null ? findWindow(windowName) : null;
+            if (window != null) {
+                putWindow(json, window.snapshot(SystemClock.elapsedRealtime()), window.getWindowMs());
+            }
+            
+            if (fields != null) {
+                java.util.Iterator<String> keys = json.keys();
+                java.util.List<String> unwanted = new java.util.ArrayList<>();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    if (!fields.contains(key)) unwanted.add(key);
+                }
+                for (String key : unwanted) {
+                    json.remove(key);
+                }
+            }
+            
             return json;
         } catch (Exception e) {
             Log.e(TAG, "Error converting metrics to JSON", e);
@@ -197,10 +817,69 @@ public class PerformanceMetrics {
         }
     }
     
+    /**
+     * Remplace les totaux par les valeurs d'une fenêtre glissante
+     */
+    private void putWindow(org.json.JSONObject json, RollingWindow.Snapshot snapshot, long windowMs) throws org.json.JSONException {
+        json.put("taskExecutionCount", snapshot.latency.count);
+        json.put("totalTaskExecutionTime", snapshot.latency.sumMicros / 1000);
+        json.put("avgTaskExecutionTime", snapshot.latency.getMeanMs());
+        json.put("taskLatency", snapshot.latency.toJson());
+        org.json.JSONObject tasks = new org.json.JSONObject();
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : snapshot.taskLatencies.entrySet()) {
+            tasks.put(entry.getKey(), entry.getValue().toJson());
+        }
+        json.put("tasks", tasks);
+        json.put("notificationUpdateCount", snapshot.counters[WINDOW_NOTIFICATION_UPDATES]);
+        json.put("locationUpdateCount", snapshot.counters[WINDOW_LOCATION_UPDATES]);
+        json.put("geofenceTriggerCount", snapshot.counters[WINDOW_GEOFENCE_TRIGGERS]);
+        
+        long checked = snapshot.counters[WINDOW_CHANGE_CHECKS];
+        long suppressed = snapshot.counters[WINDOW_CHANGE_SUPPRESSED];
+        org.json.JSONObject changeDetection = new org.json.JSONObject();
+        changeDetection.put("checked", checked);
+        changeDetection.put("suppressed", suppressed);
+        changeDetection.put("suppressionRatio", checked > 0 ? (double) suppressed / checked : 0.0);
+        json.put("changeDetection", changeDetection);
+        
+        // Compteurs nommés suivis par fenêtre (les autres restent des totaux)
+        json.put("taskFailureCount", snapshot.counters[WINDOW_TASK_FAILURES]);
+        org.json.JSONObject geofenceEvents = new org.json.JSONObject();
+        geofenceEvents.put("ENTER", snapshot.counters[WINDOW_GEOFENCE_ENTER]);
+        geofenceEvents.put("EXIT", snapshot.counters[WINDOW_GEOFENCE_EXIT]);
+        json.put("geofenceTriggersByType", geofenceEvents);
+        org.json.JSONObject notificationRender = json.optJSONObject("notificationRender");
+        if (notificationRender != null) {
+            notificationRender.put("renders", snapshot.counters[WINDOW_NOTIFICATION_RENDERS]);
+            notificationRender.put("skipped", snapshot.counters[WINDOW_NOTIFICATION_SKIPPED]);
+            notificationRender.put("coalesced", snapshot.counters[WINDOW_NOTIFICATION_COALESCED]);
+        }
+        
+        org.json.JSONObject windowInfo = new org.json.JSONObject();
+        windowInfo.put("name", snapshot.name);
+        windowInfo.put("durationMs", windowMs);
+        windowInfo.put("coveredMs", snapshot.coveredMs);
+        json.put("window", windowInfo);
+        
+        org.json.JSONObject rates = new org.json.JSONObject();
+        rates.put("taskExecutionsPerMinute", snapshot.latency.count * 60000.0 / snapshot.coveredMs);
+        rates.put("notificationUpdatesPerMinute", snapshot.ratePerMinute(WINDOW_NOTIFICATION_UPDATES));
+        rates.put("locationUpdatesPerMinute", snapshot.ratePerMinute(WINDOW_LOCATION_UPDATES));
+        rates.put("geofenceTriggersPerMinute", snapshot.ratePerMinute(WINDOW_GEOFENCE_TRIGGERS));
+        rates.put("taskFailuresPerMinute", snapshot.ratePerMinute(WINDOW_TASK_FAILURES));
+        rates.put("notificationRendersPerMinute", snapshot.ratePerMinute(WINDOW_NOTIFICATION_RENDERS));
+        json.put("rates", rates);
+    }
+    
     /**
      * Obtient le niveau de batterie actuel
      */
     private int getCurrentBatteryLevel() {
+        // Dernier relevé de la diffusion ACTION_BATTERY_CHANGED si l'échantillonnage est actif
+        int sampled = EnergyModel.getInstance(context).getBatteryLevel();
+        if (sampled >= 0) {
+            return sampled;
+        }
         try {
             BatteryManager batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
             if (batteryManager != null) {
@@ -213,36 +892,96 @@ public class PerformanceMetrics {
     }
     
     /**
-     * Sauvegarde les métriques dans SharedPreferences
+     * Écrit toutes les métriques dans SharedPreferences en une seule transaction.
+     * Sans effet si rien n'a changé depuis le dernier flush.
      */
-    private void saveMetrics() {
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putLong("task_execution_count", taskExecutionCount.get());
-        editor.putLong("task_execution_time", taskExecutionTime.get());
-        editor.putLong("notification_update_count", notificationUpdateCount.get());
-        editor.putLong("location_update_count", locationUpdateCount.get());
-        editor.putLong("geofence_trigger_count", geofenceTriggerCount.get());
-        editor.apply();
+    public synchronized void flush() {
+        try {
+            long signature = flushSignature();
+            if (signature == lastFlushSignature) {
+                return;
+            }
+            SharedPreferences.Editor editor = prefs.edit();
+            editor.putString(KEY_TASK_LATENCY, taskLatency.encode());
+            for (Map.Entry<String, LatencyHistogram> entry : taskLatencies.entrySet()) {
+                editor.putString(KEY_TASK_LATENCY_PREFIX + entry.getKey(), entry.getValue().encode());
+            }
+            for (NotificationStage stage : NotificationStage.values()) {
+                editor.putString(KEY_NOTIFICATION_STAGE_PREFIX + stage.getValue(), notificationStages[stage.ordinal()].encode());
+            }
+            editor.putLong("notification_update_count", notificationUpdateCount.sum());
+            editor.putLong("location_update_count", locationUpdateCount.sum());
+            editor.putLong("geofence_trigger_count", geofenceTriggerCount.sum());
+            editor.putLong("last_service_duration", lastServiceDuration);
+            for (Map.Entry<String, StripedCounter> entry : namedCounters.entrySet()) {
+                editor.putLong(KEY_COUNTER_PREFIX + entry.getKey(), entry.getValue().sum());
+                editor.remove(entry.getKey()); // Ancien format
+            }
+            editor.apply();
+            lastFlushSignature = signature;
+            writeCheckpoint(true);
+            if (checkpoint != null) checkpoint.force();
+        } catch (Exception e) {
+            Log.w(TAG, "Error flushing metrics", e);
+        }
     }
     
     /**
-     * Sauvegarde une métrique spécifique
+     * Empreinte peu coûteuse de l'état courant, pour éviter les écritures inutiles.
      */
-    private void saveMetric(String key, long value) {
-        prefs.edit().putLong(key, value).apply();
+    private long flushSignature() {
+        long signature = taskLatency.getCount() * 31 + taskLatencies.size();
+        signature = signature * 31 + notificationUpdateCount.sum();
+        signature = signature * 31 + locationUpdateCount.sum();
+        signature = signature * 31 + geofenceTriggerCount.sum();
+        signature = signature * 31 + lastServiceDuration;
+        for (StripedCounter counter : namedCounters.values()) {
+            signature = signature * 31 + counter.sum();
+        }
+        return signature;
     }
     
     /**
      * Réinitialise toutes les métriques
      */
     public void reset() {
-        taskExecutionCount.set(0);
-        taskExecutionTime.set(0);
+        taskLatency.reset();
+        taskLatencies.clear();
+        for (LatencyHistogram histogram : notificationStages) {
+            histogram.reset();
+        }
         notificationUpdateCount.set(0);
         locationUpdateCount.set(0);
         geofenceTriggerCount.set(0);
+        changeDetectionChecks.set(0);
+        changeDetectionSuppressed.set(0);
+        for (StripedCounter counter : namedCounters.values()) {
+            counter.set(0);
+        }
+        lastServiceDuration = 0;
+        notificationParcelBytes.set(0);
+        notificationParcelBytesMax.set(0);
+        EnergyModel.getInstance(context).reset();
+        MemoryGauges.getInstance(context).reset();
+        StartupTimer.getInstance(context).reset();
+        InstrumentedExecutors.reset();
+        com.ahmedmili.thunderbgservice.helpers.ButtonBindingCache.resetStats();
+        long now = SystemClock.elapsedRealtime();
+        for (RollingWindow window : windows) {
+            window.reset(now);
+        }
+        stateBreakdown.reset(now);
+        regressionDetector.reset();
         
-        prefs.edit().clear().apply();
+        synchronized (this) {
+            prefs.edit().clear().apply();
+            lastFlushSignature = Long.MIN_VALUE;
+            checkpointWrites = 0;
+            checkpointOverflows = 0;
+            checkpointHistogramsIncluded = true;
+            checkpointWriteFailed = false;
+            writeCheckpoint(true);
+        }
         Log.i(TAG, "Metrics reset");
     }
     
@@ -253,9 +992,15 @@ public class PerformanceMetrics {
         public long taskExecutionCount;
         public long totalTaskExecutionTime;
         public double avgTaskExecutionTime;
+        public LatencyHistogram.Snapshot taskLatency;
+        public Map<String, LatencyHistogram.Snapshot> taskLatencies;
+        public Map<String, LatencyHistogram.Snapshot> notificationStageLatencies;
         public long notificationUpdateCount;
         public long locationUpdateCount;
         public long geofenceTriggerCount;
+        public long changeDetectionChecks;
+        public long changeDetectionSuppressed;
+        public double changeSuppressionRatio;
         public long serviceUptime; // en millisecondes
         public int currentBatteryLevel;
         public int batteryDrain;
@@ -264,8 +1009,9 @@ public class PerformanceMetrics {
         @Override
         public String toString() {
             return String.format(
-                "MetricsData{taskExecutions=%d, avgTime=%.2fms, notifications=%d, locations=%d, geofences=%d, uptime=%dms, battery=%d%%, drain=%d%%}",
-                taskExecutionCount, avgTaskExecutionTime, notificationUpdateCount, 
+                "MetricsData{taskExecutions=%d, avgTime=%.2fms, p99=%.2fms, notifications=%d, locations=%d, geofences=%d, uptime=%dms, battery=%d%%, drain=%d%%}",
+                taskExecutionCount, avgTaskExecutionTime,
+                taskLatency != null ? taskLatency.p99Micros / 1000.0 : 0.0, notificationUpdateCount, 
                 locationUpdateCount, geofenceTriggerCount, serviceUptime, 
                 currentBatteryLevel, batteryDrain
             );
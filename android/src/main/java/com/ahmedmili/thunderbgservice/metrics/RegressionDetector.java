@@ -0,0 +1,238 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import com.ahmedmili.thunderbgservice.core.ThunderBgServicePlugin;
+import com.getcapacitor.JSObject;
+import org.json.JSONObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Détection de régressions de performance par tâche, signalées à JS par l'événement
+ * "performanceAlert".
+ *
+ * Latence: une EWMA lente (référence) et sa variance suivent le comportement habituel,
+ * une EWMA rapide suit le comportement récent. Une régression est signalée quand l'EWMA rapide
+ * dépasse la référence à la fois d'un facteur (ratio), d'un nombre d'écarts-types (sigma) et
+ * d'une durée minimale (minDeltaMs), pendant sustainedSamples exécutions consécutives.
+ * Échecs: une rafale est signalée à failureBurst échecs en moins de failureWindowMs.
+ *
+ * L'état par tâche est alloué à la première exécution; ensuite l'enregistrement n'alloue rien.
+ * Les alertes sont limitées à une par tâche et par type toutes les minIntervalMs.
+ */
+public class RegressionDetector {
+    private static final String TAG = "RegressionDetector";
+    private static final String PREFS_NAME = "thunder_bg_alerts";
+    public static final String EVENT_NAME = "performanceAlert";
+    public static final String TYPE_LATENCY = "latency_regression";
+    public static final String TYPE_FAILURES = "failure_burst";
+
+    private static final double BASELINE_ALPHA = 0.05;
+    private static final double RECENT_ALPHA = 0.3;
+    private static final int MAX_FAILURE_BURST = 16;
+
+    private static RegressionDetector instance;
+    private final SharedPreferences prefs;
+    private final Map<String, TaskState> states = new ConcurrentHashMap<>();
+
+    // Seuils (configurables, persistés)
+    private volatile boolean enabled;
+    private volatile double ratio;
+    private volatile double sigma;
+    private volatile long minDeltaMicros;
+    private volatile int sustainedSamples;
+    private volatile int warmupSamples;
+    private volatile int failureBurst;
+    private volatile long failureWindowMs;
+    private volatile long minIntervalMs;
+
+    private RegressionDetector(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        enabled = prefs.getBoolean("enabled", true);
+        ratio = prefs.getFloat("ratio", 2.0f);
+        sigma = prefs.getFloat("sigma", 3.0f);
+        minDeltaMicros = prefs.getLong("min_delta_ms", 20) * 1000;
+        sustainedSamples = prefs.getInt("sustained_samples", 5);
+        warmupSamples = prefs.getInt("warmup_samples", 20);
+        failureBurst = prefs.getInt("failure_burst", 3);
+        failureWindowMs = prefs.getLong("failure_window_ms", 300000);
+        minIntervalMs = prefs.getLong("min_interval_ms", 600000);
+    }
+
+    public static synchronized RegressionDetector getInstance(Context context) {
+        if (instance == null) {
+            instance = new RegressionDetector(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Met à jour les seuils (les clés absentes gardent leur valeur) et renvoie la configuration.
+     */
+    public synchronized JSONObject configure(JSONObject options) throws Exception {
+        enabled = options.optBoolean("enabled", enabled);
+        ratio = Math.max(1.0, options.optDouble("ratio", ratio));
+        sigma = Math.max(0.0, options.optDouble("sigma", sigma));
+        minDeltaMicros = Math.max(0, options.optLong("minDeltaMs", minDeltaMicros / 1000)) * 1000;
+        sustainedSamples = Math.max(1, options.optInt("sustainedSamples", sustainedSamples));
+        warmupSamples = Math.max(1, options.optInt("warmupSamples", warmupSamples));
+        failureBurst = Math.max(1, Math.min(MAX_FAILURE_BURST, options.optInt("failureBurst", failureBurst)));
+        failureWindowMs = Math.max(1000, options.optLong("failureWindowMs", failureWindowMs));
+        minIntervalMs = Math.max(0, options.optLong("minIntervalMs", minIntervalMs));
+        prefs.edit()
+            .putBoolean("enabled", enabled)
+            .putFloat("ratio", (float) ratio)
+            .putFloat("sigma", (float) sigma)
+            .putLong("min_delta_ms", minDeltaMicros / 1000)
+            .putInt("sustained_samples", sustainedSamples)
+            .putInt("warmup_samples", warmupSamples)
+            .putInt("failure_burst", failureBurst)
+            .putLong("failure_window_ms", failureWindowMs)
+            .putLong("min_interval_ms", minIntervalMs)
+            .apply();
+        return getConfig();
+    }
+
+    public JSONObject getConfig() throws Exception {
+        JSONObject config = new JSONObject();
+        config.put("enabled", enabled);
+        config.put("ratio", ratio);
+        config.put("sigma", sigma);
+        config.put("minDeltaMs", minDeltaMicros / 1000);
+        config.put("sustainedSamples", sustainedSamples);
+        config.put("warmupSamples", warmupSamples);
+        config.put("failureBurst", failureBurst);
+        config.put("failureWindowMs", failureWindowMs);
+        config.put("minIntervalMs", minIntervalMs);
+        return config;
+    }
+
+    /**
+     * Enregistre une latence d'exécution (µs).
+     */
+    public void recordLatency(String taskId, long micros) {
+        if (!enabled || taskId == null) return;
+        TaskState state = state(taskId);
+        double baselineMicros;
+        double stdDevMicros;
+        double recentMicros;
+        synchronized (state) {
+            state.samples++;
+            if (state.samples == 1) {
+                state.baseline = micros;
+                state.recent = micros;
+                return;
+            }
+            state.recent += RECENT_ALPHA * (micros - state.recent);
+            double stdDev = Math.sqrt(state.variance);
+            boolean regressed = state.samples > warmupSamples
+                && state.recent > state.baseline * ratio
+                && state.recent > state.baseline + sigma * stdDev
+                && state.recent - state.baseline > minDeltaMicros;
+            if (!regressed) {
+                state.slowStreak = 0;
+                // Variance exponentielle (West): mise à jour avant la moyenne
+                double delta = micros - state.baseline;
+                state.baseline += BASELINE_ALPHA * delta;
+                state.variance = (1 - BASELINE_ALPHA) * (state.variance + BASELINE_ALPHA * delta * delta);
+                return;
+            }
+            // La référence n'absorbe pas les échantillons anormaux tant que la régression n'est pas signalée
+            if (++state.slowStreak < sustainedSamples) return;
+            state.slowStreak = 0;
+            baselineMicros = state.baseline;
+            stdDevMicros = stdDev;
+            recentMicros = state.recent;
+            // Nouveau niveau accepté comme référence: une seule alerte par palier
+            state.baseline = state.recent;
+            state.variance = 0;
+            if (!state.allowAlert(0, System.currentTimeMillis(), minIntervalMs)) return;
+        }
+        emitLatencyAlert(taskId, baselineMicros, recentMicros, stdDevMicros, micros);
+    }
+
+    /**
+     * Enregistre un échec d'exécution.
+     */
+    public void recordFailure(String taskId) {
+        if (!enabled || taskId == null) return;
+        TaskState state = state(taskId);
+        long now = System.currentTimeMillis();
+        int burst = failureBurst;
+        synchronized (state) {
+            state.failures[state.failureCursor] = now;
+            state.failureCursor = (state.failureCursor + 1) % MAX_FAILURE_BURST;
+            // Le burst-ième échec le plus récent doit être dans la fenêtre
+            int oldest = (state.failureCursor - burst + MAX_FAILURE_BURST) % MAX_FAILURE_BURST;
+            long oldestAt = state.failures[oldest];
+            if (oldestAt == 0 || now - oldestAt > failureWindowMs) return;
+            if (!state.allowAlert(1, now, minIntervalMs)) return;
+        }
+        emitFailureAlert(taskId, burst);
+    }
+
+    public void reset() {
+        states.clear();
+    }
+
+    private TaskState state(String taskId) {
+        TaskState state = states.get(taskId);
+        if (state == null) {
+            TaskState created = new TaskState();
+            state = states.putIfAbsent(taskId, created);
+            if (state == null) state = created;
+        }
+        return state;
+    }
+
+    private void emitLatencyAlert(String taskId, double baselineMicros, double recentMicros,
+                                  double stdDevMicros, long lastMicros) {
+        JSObject alert = new JSObject();
+        alert.put("type", TYPE_LATENCY);
+        alert.put("taskId", taskId);
+        alert.put("baselineMs", baselineMicros / 1000.0);
+        alert.put("currentMs", recentMicros / 1000.0);
+        alert.put("stdDevMs", stdDevMicros / 1000.0);
+        alert.put("lastMs", lastMicros / 1000.0);
+        alert.put("ratio", baselineMicros > 0 ? recentMicros / baselineMicros : 0.0);
+        emit(alert);
+    }
+
+    private void emitFailureAlert(String taskId, int failures) {
+        JSObject alert = new JSObject();
+        alert.put("type", TYPE_FAILURES);
+        alert.put("taskId", taskId);
+        alert.put("failures", failures);
+        alert.put("windowMs", failureWindowMs);
+        emit(alert);
+    }
+
+    private void emit(JSObject alert) {
+        alert.put("timestamp", System.currentTimeMillis());
+        Log.w(TAG, "Performance alert: " + alert);
+        ThunderBgServicePlugin plugin = ThunderBgServicePlugin.getInstance();
+        if (plugin != null) {
+            // Retenue jusqu'à l'ajout d'un listener JS
+            plugin.emitTaskEvent(EVENT_NAME, alert, true);
+        }
+    }
+
+    private static final class TaskState {
+        long samples;
+        double baseline;
+        double variance;
+        double recent;
+        int slowStreak;
+        final long[] failures = new long[MAX_FAILURE_BURST];
+        int failureCursor;
+        final long[] lastAlertAt = new long[2]; // [latence, échecs]
+
+        boolean allowAlert(int type, long now, long minInterval) {
+            if (lastAlertAt[type] != 0 && now - lastAlertAt[type] < minInterval) return false;
+            lastAlertAt[type] = now;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fenêtre glissante de métriques (ex: 5 minutes) en anneau de tranches de durée fixe.
+ *
+ * Pas de thread dédié: la tranche courante est déterminée à partir de l'horloge à chaque
+ * enregistrement, et une tranche périmée est remise à zéro au moment où elle est réutilisée.
+ * La lecture n'additionne que les tranches encore couvertes par la fenêtre.
+ */
+public class RollingWindow {
+    private final String name;
+    private final long slotMs;
+    private final Slot[] slots;
+    private final int counterCount;
+    private volatile long startedAt;
+
+    /**
+     * @param name Nom exposé à JS (ex: "5m")
+     * @param windowMs Durée de la fenêtre
+     * @param slotCount Nombre de tranches (précision de la fenêtre = windowMs / slotCount)
+     * @param counterCount Nombre de compteurs suivis (indices 0..counterCount-1)
+     */
+    public RollingWindow(String name, long windowMs, int slotCount, int counterCount, long now) {
+        this.name = name;
+        this.slotMs = windowMs / slotCount;
+        this.counterCount = counterCount;
+        this.slots = new Slot[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new Slot(counterCount);
+        }
+        this.startedAt = now;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getWindowMs() {
+        return slotMs * slots.length;
+    }
+
+    public void increment(int counter, long now) {
+        current(now).counters.incrementAndGet(counter);
+    }
+
+    public void recordLatency(String taskId, long micros, long now) {
+        Slot slot = current(now);
+        slot.latency.record(micros);
+        if (taskId != null) {
+            LatencyHistogram histogram = slot.taskLatencies.get(taskId);
+            if (histogram == null) {
+                LatencyHistogram created = new LatencyHistogram();
+                histogram = slot.taskLatencies.putIfAbsent(taskId, created);
+                if (histogram == null) histogram = created;
+            }
+            histogram.record(micros);
+        }
+    }
+
+    /**
+     * Agrège les tranches couvertes par la fenêtre.
+     */
+    public Snapshot snapshot(long now) {
+        long epoch = now / slotMs;
+        long[] counters = new long[counterCount];
+        LatencyHistogram latency = new LatencyHistogram();
+        Map<String, LatencyHistogram> taskLatencies = new HashMap<>();
+        for (Slot slot : slots) {
+            if (slot.epoch <= epoch - slots.length || slot.epoch > epoch) continue;
+            for (int i = 0; i < counterCount; i++) {
+                counters[i] += slot.counters.get(i);
+            }
+            latency.add(slot.latency);
+            for (Map.Entry<String, LatencyHistogram> entry : slot.taskLatencies.entrySet()) {
+                LatencyHistogram merged = taskLatencies.get(entry.getKey());
+                if (merged == null) {
+                    merged = new LatencyHistogram();
+                    taskLatencies.put(entry.getKey(), merged);
+                }
+                merged.add(entry.getValue());
+            }
+        }
+        Map<String, LatencyHistogram.Snapshot> tasks = new HashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : taskLatencies.entrySet()) {
+            tasks.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        // Durée couverte par les tranches additionnées: les n-1 précédentes entières et la
+        // courante jusqu'à now (moins juste après le démarrage ou un reset)
+        long oldestSlotStart = (epoch - slots.length + 1) * slotMs;
+        long coveredMs = Math.max(1, now - Math.max(oldestSlotStart, startedAt));
+        return new Snapshot(name, coveredMs, counters, latency.snapshot(), tasks);
+    }
+
+    public void reset(long now) {
+        for (Slot slot : slots) {
+            synchronized (slot) {
+                slot.clear();
+                slot.epoch = -1;
+            }
+        }
+        startedAt = now;
+    }
+
+    private Slot current(long now) {
+        long epoch = now / slotMs;
+        Slot slot = slots[(int) (epoch % slots.length)];
+        if (slot.epoch != epoch) {
+            synchronized (slot) {
+                if (slot.epoch != epoch) {
+                    slot.clear();
+                    slot.epoch = epoch;
+                }
+            }
+        }
+        return slot;
+    }
+
+    private static final class Slot {
+        volatile long epoch = -1;
+        final AtomicLongArray counters;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final Map<String, LatencyHistogram> taskLatencies = new ConcurrentHashMap<>();
+
+        Slot(int counterCount) {
+            counters = new AtomicLongArray(counterCount);
+        }
+
+        void clear() {
+            for (int i = 0; i < counters.length(); i++) {
+                counters.set(i, 0);
+            }
+            latency.reset();
+            taskLatencies.clear();
+        }
+    }
+
+    /**
+     * Valeurs agrégées d'une fenêtre.
+     */
+    public static class Snapshot {
+        public final String name;
+        public final long coveredMs;
+        public final long[] counters;
+        public final LatencyHistogram.Snapshot latency;
+        public final Map<String, LatencyHistogram.Snapshot> taskLatencies;
+
+        Snapshot(String name, long coveredMs, long[] counters, LatencyHistogram.Snapshot latency,
+                 Map<String, LatencyHistogram.Snapshot> taskLatencies) {
+            this.name = name;
+            this.coveredMs = coveredMs;
+            this.counters = counters;
+            this.latency = latency;
+            this.taskLatencies = taskLatencies;
+        }
+
+        /**
+         * Taux par minute d'un compteur sur la durée couverte.
+         */
+        public double ratePerMinute(int counter) {
+            return counters[counter] * 60000.0 / coveredMs;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import org.json.JSONObject;
+
+/**
+ * Chronométrage du démarrage de ForegroundTaskService.
+ *
+ * Jalons en SystemClock.elapsedRealtime() (monotone, comparable au sein d'un même boot):
+ * démarrage du process, onCreate, onStartCommand(ACTION_START), startForeground, tâches
+ * restaurées. Un démarrage est:
+ * - "cold": premier démarrage du service dans un process lancé pour lui (onCreate moins de
+ *   COLD_START_MAX_MS après le démarrage du process), mesuré depuis le démarrage du process,
+ * - "restart": précédé d'un onTaskRemoved (swipe-kill), qu'il y ait eu nouveau process ou non,
+ * - "warm": tout autre ACTION_START (mesuré depuis onCreate ou onStartCommand).
+ *
+ * Le dernier rapport, les compteurs (dont les redémarrages depuis le boot courant) et
+ * l'histogramme des durées de démarrage sont persistés à chaque démarrage terminé.
+ */
+public class StartupTimer {
+    private static final String TAG = "StartupTimer";
+    private static final String PREFS_NAME = "thunder_bg_startup";
+    private static final String KEY_HISTOGRAM = "startup_latency";
+    private static final String KEY_RESTART_PENDING = "restart_pending";
+    private static final String KEY_TASK_REMOVED_AT = "task_removed_at";
+    private static final String KEY_BOOT_TIME = "boot_time";
+    private static final String KEY_LAST_PREFIX = "last_";
+    // Tolérance sur l'heure de boot estimée (ajustements d'horloge murale)
+    private static final long BOOT_TIME_TOLERANCE_MS = 60000;
+    // Au-delà, le process a été lancé pour autre chose (activité) avant le service
+    private static final long COLD_START_MAX_MS = 30000;
+
+    // Jalons
+    private static final int PROCESS_START = 0;
+    private static final int SERVICE_CREATE = 1;
+    private static final int START_COMMAND = 2;
+    private static final int FOREGROUND = 3;
+    private static final int TASKS_RESTORED = 4;
+    private static final String[] MILESTONES = {
+        "processStart", "serviceCreate", "startCommand", "foreground", "tasksRestored"
+    };
+
+    // Avant Android N: pas d'horodatage du process, repli sur le chargement de cette classe
+    private static final long CLASS_LOADED_AT = SystemClock.elapsedRealtime();
+
+    private static StartupTimer instance;
+    private final SharedPreferences prefs;
+    private final LatencyHistogram latency;
+    private final long[] current = new long[MILESTONES.length];
+    private boolean inProgress = false;
+    private boolean firstInProcess = true;
+
+    private StartupTimer(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.latency = LatencyHistogram.decode(prefs.getString(KEY_HISTOGRAM, null));
+    }
+
+    public static synchronized StartupTimer getInstance(Context context) {
+        if (instance == null) {
+            instance = new StartupTimer(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Service.onCreate(): ouvre un nouveau démarrage.
+     */
+    public synchronized void markServiceCreated() {
+        java.util.Arrays.fill(current, 0);
+        current[SERVICE_CREATE] = SystemClock.elapsedRealtime();
+        inProgress = true;
+    }
+
+    /**
+     * onStartCommand(ACTION_START): ouvre un démarrage si le service tournait déjà.
+     */
+    public synchronized void markStartCommand() {
+        if (!inProgress) {
+            java.util.Arrays.fill(current, 0);
+            inProgress = true;
+        }
+        current[START_COMMAND] = SystemClock.elapsedRealtime();
+    }
+
+    public synchronized void markForeground() {
+        if (inProgress) current[FOREGROUND] = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Tâches persistées réenregistrées: clôt et enregistre le démarrage.
+     */
+    public synchronized void markTasksRestored() {
+        if (!inProgress) return;
+        long now = SystemClock.elapsedRealtime();
+        current[TASKS_RESTORED] = now;
+        inProgress = false;
+
+        boolean restart = prefs.getBoolean(KEY_RESTART_PENDING, false);
+        boolean cold = false;
+        if (firstInProcess && current[SERVICE_CREATE] > 0) {
+            long processStart = processStartElapsed();
+            cold = current[SERVICE_CREATE] - processStart < COLD_START_MAX_MS;
+            if (cold) current[PROCESS_START] = processStart;
+        }
+        firstInProcess = false;
+        String type = restart ? "restart" : cold ? "cold" : "warm";
+        long startedAt = current[PROCESS_START] > 0 ? current[PROCESS_START]
+            : current[SERVICE_CREATE] > 0 ? current[SERVICE_CREATE] : current[START_COMMAND];
+        long totalMs = now - startedAt;
+        latency.record(totalMs * 1000);
+
+        SharedPreferences.Editor editor = prefs.edit();
+        long bootTime = System.currentTimeMillis() - now;
+        boolean sameBoot = Math.abs(bootTime - prefs.getLong(KEY_BOOT_TIME, 0)) < BOOT_TIME_TOLERANCE_MS;
+        if (!sameBoot) {
+            editor.putLong(KEY_BOOT_TIME, bootTime);
+            editor.putInt("restarts_this_boot", 0);
+        }
+        editor.putLong("count", prefs.getLong("count", 0) + 1);
+        editor.putLong("count_" + type, prefs.getLong("count_" + type, 0) + 1);
+        if (restart) {
+            editor.putInt("restarts_this_boot", (sameBoot ? prefs.getInt("restarts_this_boot", 0) : 0) + 1);
+            long removedAt = prefs.getLong(KEY_TASK_REMOVED_AT, 0);
+            // elapsedRealtime n'est comparable qu'au sein d'un même boot
+            editor.putLong(KEY_LAST_PREFIX + "since_task_removed_ms",
+                sameBoot && removedAt > 0 && removedAt <= now ? now - removedAt : -1);
+            editor.putBoolean(KEY_RESTART_PENDING, false);
+        } else {
+            editor.remove(KEY_LAST_PREFIX + "since_task_removed_ms");
+        }
+        editor.putString(KEY_LAST_PREFIX + "type", type);
+        editor.putLong(KEY_LAST_PREFIX + "at", System.currentTimeMillis());
+        editor.putLong(KEY_LAST_PREFIX + "total_ms", totalMs);
+        for (int i = 0; i < MILESTONES.length; i++) {
+            editor.putLong(KEY_LAST_PREFIX + MILESTONES[i], current[i]);
+        }
+        editor.putString(KEY_HISTOGRAM, latency.encode());
+        editor.apply();
+        Log.i(TAG, "Service startup (" + type + "): " + totalMs + "ms");
+    }
+
+    /**
+     * onTaskRemoved(): le prochain démarrage terminé sera compté comme redémarrage.
+     * Écrit en synchrone, le process pouvant être tué juste après.
+     */
+    public synchronized void markTaskRemoved() {
+        prefs.edit()
+            .putBoolean(KEY_RESTART_PENDING, true)
+            .putLong(KEY_TASK_REMOVED_AT, SystemClock.elapsedRealtime())
+            .commit();
+    }
+
+    public synchronized void reset() {
+        latency.reset();
+        boolean restartPending = prefs.getBoolean(KEY_RESTART_PENDING, false);
+        long removedAt = prefs.getLong(KEY_TASK_REMOVED_AT, 0);
+        prefs.edit().clear()
+            .putBoolean(KEY_RESTART_PENDING, restartPending)
+            .putLong(KEY_TASK_REMOVED_AT, removedAt)
+            .apply();
+    }
+
+    public synchronized JSONObject getStats() throws Exception {
+        JSONObject json = new JSONObject();
+        json.put("count", prefs.getLong("count", 0));
+        json.put("coldCount", prefs.getLong("count_cold", 0));
+        json.put("warmCount", prefs.getLong("count_warm", 0));
+        json.put("restartCount", prefs.getLong("count_restart", 0));
+        long bootTime = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        boolean sameBoot = Math.abs(bootTime - prefs.getLong(KEY_BOOT_TIME, 0)) < BOOT_TIME_TOLERANCE_MS;
+        json.put("restartsThisBoot", sameBoot ? prefs.getInt("restarts_this_boot", 0) : 0);
+        json.put("bootTime", bootTime);
+        json.put("latency", latency.snapshot().toJson());
+
+        String type = prefs.getString(KEY_LAST_PREFIX + "type", null);
+        if (type != null) {
+            JSONObject last = new JSONObject();
+            last.put("type", type);
+            last.put("timestamp", prefs.getLong(KEY_LAST_PREFIX + "at", 0));
+            last.put("totalMs", prefs.getLong(KEY_LAST_PREFIX + "total_ms", 0));
+            if (prefs.contains(KEY_LAST_PREFIX + "since_task_removed_ms")) {
+                last.put("sinceTaskRemovedMs", prefs.getLong(KEY_LAST_PREFIX + "since_task_removed_ms", -1));
+            }
+            // Horodatages monotones bruts (elapsedRealtime, 0 = jalon absent)
+            JSONObject milestones = new JSONObject();
+            for (String milestone : MILESTONES) {
+                milestones.put(milestone, prefs.getLong(KEY_LAST_PREFIX + milestone, 0));
+            }
+            last.put("milestones", milestones);
+            json.put("last", last);
+        }
+        return json;
+    }
+
+    private static long processStartElapsed() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        return CLASS_LOADED_AT;
+    }
+}
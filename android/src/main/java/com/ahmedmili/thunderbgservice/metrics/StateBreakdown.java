@@ -0,0 +1,95 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import com.ahmedmili.thunderbgservice.state.AppState;
+import org.json.JSONObject;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Métriques ventilées par AppState.
+ *
+ * Stockage dimensionnel: un tableau [état][champ] indexé par AppState.ordinal(), sans clé
+ * textuelle à l'enregistrement. L'état courant est un entier volatile mis à jour par
+ * StateManager à chaque transition; le temps passé dans chaque état est cumulé au changement.
+ * En mémoire uniquement (depuis le démarrage du process ou le dernier reset).
+ */
+public final class StateBreakdown {
+    static final int TASK_RUNS = 0;
+    static final int TASK_TIME_US = 1;
+    static final int CPU_NS = 2;
+    static final int NOTIFICATION_UPDATES = 3;
+    static final int LOCATION_UPDATES = 4;
+    static final int GEOFENCE_TRIGGERS = 5;
+    static final int TIME_MS = 6;
+    private static final int FIELD_COUNT = 7;
+
+    private static final AppState[] STATES = AppState.values();
+
+    private final AtomicLongArray values = new AtomicLongArray(STATES.length * FIELD_COUNT);
+    private volatile int current = AppState.OFFLINE.ordinal();
+    private long currentSince;
+
+    StateBreakdown(long now) {
+        this.currentSince = now;
+    }
+
+    void add(int field, long delta) {
+        values.getAndAdd(current * FIELD_COUNT + field, delta);
+    }
+
+    void increment(int field) {
+        add(field, 1);
+    }
+
+    synchronized void setState(AppState state, long now) {
+        if (state == null || state.ordinal() == current) return;
+        values.getAndAdd(current * FIELD_COUNT + TIME_MS, now - currentSince);
+        current = state.ordinal();
+        currentSince = now;
+    }
+
+    AppState getState() {
+        return STATES[current];
+    }
+
+    synchronized void reset(long now) {
+        for (int i = 0; i < values.length(); i++) {
+            values.set(i, 0);
+        }
+        currentSince = now;
+    }
+
+    /**
+     * Une entrée par état ayant été actif (temps ou activité non nuls).
+     */
+    synchronized JSONObject toJson(long now) throws Exception {
+        JSONObject json = new JSONObject();
+        for (AppState state : STATES) {
+            int base = state.ordinal() * FIELD_COUNT;
+            long timeMs = values.get(base + TIME_MS) + (state.ordinal() == current ? now - currentSince : 0);
+            long taskRuns = values.get(base + TASK_RUNS);
+            long notifications = values.get(base + NOTIFICATION_UPDATES);
+            long locations = values.get(base + LOCATION_UPDATES);
+            long geofences = values.get(base + GEOFENCE_TRIGGERS);
+            long cpuNs = values.get(base + CPU_NS);
+            if (timeMs == 0 && taskRuns == 0 && notifications == 0 && locations == 0 && geofences == 0 && cpuNs == 0) {
+                continue;
+            }
+            long taskTimeUs = values.get(base + TASK_TIME_US);
+            double minutes = timeMs / 60000.0;
+
+            JSONObject entry = new JSONObject();
+            entry.put("timeMs", timeMs);
+            entry.put("taskRuns", taskRuns);
+            entry.put("taskTimeMs", taskTimeUs / 1000.0);
+            entry.put("avgTaskMs", taskRuns > 0 ? taskTimeUs / 1000.0 / taskRuns : 0.0);
+            entry.put("cpuMs", cpuNs / 1e6);
+            entry.put("notificationUpdates", notifications);
+            entry.put("locationUpdates", locations);
+            entry.put("geofenceTriggers", geofences);
+            entry.put("cpuMsPerMinute", minutes > 0 ? cpuNs / 1e6 / minutes : 0.0);
+            entry.put("notificationUpdatesPerMinute", minutes > 0 ? notifications / minutes : 0.0);
+            json.put(state.getValue(), entry);
+        }
+        return json;
+    }
+}
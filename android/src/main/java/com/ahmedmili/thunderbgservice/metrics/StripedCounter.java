@@ -0,0 +1,56 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compteur réparti sur plusieurs cellules (équivalent de LongAdder, indisponible avant l'API 24).
+ *
+ * Chaque thread incrémente la cellule choisie par un hachage de son id; les cellules sont
+ * espacées de 64 octets pour éviter le faux partage. La lecture additionne toutes les cellules
+ * (valeur non atomique en cas d'écritures concurrentes, comme LongAdder).
+ */
+public final class StripedCounter {
+    private static final int PADDING = 8; // 8 longs = 64 octets par cellule
+    private static final int STRIPES;
+
+    static {
+        int target = Math.min(Runtime.getRuntime().availableProcessors() * 2, 32);
+        int stripes = 1;
+        while (stripes < target) stripes <<= 1;
+        STRIPES = stripes;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        cells.getAndAdd(stripeIndex() * PADDING, delta);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Remplace la valeur courante (restauration depuis le stockage, reset).
+     */
+    public void set(long value) {
+        for (int i = 1; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+        cells.set(0, value);
+    }
+
+    private static int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+        return hash & (STRIPES - 1);
+    }
+}
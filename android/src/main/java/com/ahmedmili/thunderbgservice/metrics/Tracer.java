@@ -0,0 +1,259 @@
+package com.ahmedmili.thunderbgservice.metrics;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.Trace;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spans de trace sur les chemins critiques du service (exécution de tâche, bindings de
+ * notification, décodage d'image, résolution de ressource, géofences, transitions d'état).
+ *
+ * Désactivé, begin() se limite à la lecture d'un champ volatile et renvoie 0 (aucune allocation).
+ * Activé, chaque span ouvre une section android.os.Trace (visible dans Perfetto / systrace)
+ * et est conservé dans un tampon circulaire préalloué, exportable au format JSON
+ * Chrome Trace Event (chargeable dans ui.perfetto.dev ou chrome://tracing).
+ *
+ * Usage:
+ * long span = Tracer.begin("task.execute");
+ * try { ... } finally { Tracer.end(span, taskId); }
+ */
+public final class Tracer {
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int MAX_CAPACITY = 65536;
+
+    private static final String CATEGORY = "thunderbg";
+    private static final String TRACE_DIR = "thunder_bg_traces";
+    private static final int MAX_TRACE_FILES = 5;
+    // Limite de longueur d'un nom de section android.os.Trace
+    private static final int MAX_SECTION_NAME = 127;
+
+    private static volatile boolean enabled = false;
+    private static volatile Buffer buffer = new Buffer(DEFAULT_CAPACITY);
+    private static final Map<Integer, String> threadNames = new ConcurrentHashMap<>();
+
+    // Nom du span ouvert par begin(), par thread (les spans sont imbriqués et synchrones)
+    private static final ThreadLocal<SpanStack> openSpans = new ThreadLocal<SpanStack>() {
+        @Override
+        protected SpanStack initialValue() {
+            return new SpanStack();
+        }
+    };
+
+    private Tracer() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Active ou désactive le traçage. Un changement de capacité vide le tampon.
+     */
+    public static synchronized void setEnabled(boolean enable, int capacity) {
+        int size = Math.max(16, Math.min(MAX_CAPACITY, capacity));
+        if (size != buffer.capacity) {
+            buffer = new Buffer(size);
+        }
+        enabled = enable;
+    }
+
+    public static int getCapacity() {
+        return buffer.capacity;
+    }
+
+    /**
+     * Ouvre un span.
+     * @return Horodatage de début (ns), 0 si le traçage est désactivé
+     */
+    public static long begin(String name) {
+        if (!enabled) return 0;
+        Trace.beginSection(name.length() > MAX_SECTION_NAME ? name.substring(0, MAX_SECTION_NAME) : name);
+        openSpans.get().push(name);
+        return System.nanoTime();
+    }
+
+    public static void end(long start) {
+        end(start, null);
+    }
+
+    /**
+     * Ferme le span ouvert par begin() sur le même thread.
+     * @param start Valeur renvoyée par begin() (0 = rien à faire)
+     * @param detail Information libre exportée dans "args" (ex: id de tâche), peut être null
+     */
+    public static void end(long start, String detail) {
+        if (start == 0) return;
+        long duration = System.nanoTime() - start;
+        Trace.endSection();
+        String name = openSpans.get().pop();
+        if (name == null) return;
+
+        int tid = Process.myTid();
+        if (!threadNames.containsKey(tid)) {
+            threadNames.put(tid, Thread.currentThread().getName());
+        }
+        buffer.record(name, detail, tid, start, duration);
+    }
+
+    public static void clear() {
+        buffer.clear();
+    }
+
+    /**
+     * Nombre de spans actuellement conservés.
+     */
+    public static int getEventCount() {
+        return buffer.size();
+    }
+
+    /**
+     * Exporte le tampon au format Chrome Trace Event (événements complets "X", en µs).
+     */
+    public static JSONObject toTraceJson() {
+        JSONObject trace = new JSONObject();
+        JSONArray events = new JSONArray();
+        try {
+            int pid = Process.myPid();
+            for (Map.Entry<Integer, String> entry : threadNames.entrySet()) {
+                JSONObject meta = new JSONObject();
+                meta.put("name", "thread_name");
+                meta.put("ph", "M");
+                meta.put("pid", pid);
+                meta.put("tid", entry.getKey());
+                JSONObject args = new JSONObject();
+                args.put("name", entry.getValue());
+                meta.put("args", args);
+                events.put(meta);
+            }
+            buffer.writeEvents(events, pid);
+            trace.put("traceEvents", events);
+            trace.put("displayTimeUnit", "ms");
+        } catch (Exception e) {
+            android.util.Log.w("Tracer", "Error exporting trace", e);
+        }
+        return trace;
+    }
+
+    /**
+     * Écrit le tampon dans filesDir/thunder_bg_traces/trace-<timestamp>.json
+     * (seuls les MAX_TRACE_FILES fichiers les plus récents sont conservés).
+     */
+    public static File dumpToFile(Context context) throws Exception {
+        File dir = new File(context.getFilesDir(), TRACE_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new java.io.IOException("Cannot create " + dir.getAbsolutePath());
+        }
+        File file = new File(dir, "trace-" + System.currentTimeMillis() + ".json");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+            writer.write(toTraceJson().toString());
+        }
+
+        File[] files = dir.listFiles();
+        if (files != null && files.length > MAX_TRACE_FILES) {
+            Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+            for (int i = 0; i < files.length - MAX_TRACE_FILES; i++) {
+                files[i].delete();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Tampon circulaire de spans en tableaux parallèles préalloués.
+     * L'écriture réserve un emplacement par incrément atomique; au-delà de la capacité,
+     * les spans les plus anciens sont écrasés.
+     */
+    private static final class Buffer {
+        final int capacity;
+        final String[] names;
+        final String[] details;
+        final int[] tids;
+        final long[] starts;
+        final long[] durations;
+        final AtomicLong cursor = new AtomicLong(0);
+
+        Buffer(int capacity) {
+            this.capacity = capacity;
+            names = new String[capacity];
+            details = new String[capacity];
+            tids = new int[capacity];
+            starts = new long[capacity];
+            durations = new long[capacity];
+        }
+
+        void record(String name, String detail, int tid, long start, long duration) {
+            int i = (int) (cursor.getAndIncrement() % capacity);
+            // Nom écrit en dernier: un emplacement en cours d'écriture est ignoré à l'export
+            names[i] = null;
+            details[i] = detail;
+            tids[i] = tid;
+            starts[i] = start;
+            durations[i] = duration;
+            names[i] = name;
+        }
+
+        int size() {
+            return (int) Math.min(cursor.get(), capacity);
+        }
+
+        void clear() {
+            cursor.set(0);
+            for (int i = 0; i < capacity; i++) {
+                names[i] = null;
+            }
+        }
+
+        void writeEvents(JSONArray events, int pid) throws Exception {
+            long end = cursor.get();
+            long first = Math.max(0, end - capacity);
+            for (long n = first; n < end; n++) {
+                int i = (int) (n % capacity);
+                String name = names[i];
+                if (name == null) continue;
+                JSONObject event = new JSONObject();
+                event.put("name", name);
+                event.put("cat", CATEGORY);
+                event.put("ph", "X");
+                event.put("ts", starts[i] / 1000.0);
+                event.put("dur", durations[i] / 1000.0);
+                event.put("pid", pid);
+                event.put("tid", tids[i]);
+                String detail = details[i];
+                if (detail != null) {
+                    JSONObject args = new JSONObject();
+                    args.put("detail", detail);
+                    event.put("args", args);
+                }
+                events.put(event);
+            }
+        }
+    }
+
+    /**
+     * Pile des noms de spans ouverts sur un thread (profondeur bornée).
+     */
+    private static final class SpanStack {
+        private final String[] names = new String[32];
+        private int depth = 0;
+
+        void push(String name) {
+            if (depth < names.length) names[depth] = name;
+            depth++;
+        }
+
+        String pop() {
+            if (depth == 0) return null;
+            depth--;
+            return depth < names.length ? names[depth] : null;
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.ahmedmili.thunderbgservice.state;
 import android.content.Context;
 import android.util.Log;
 import com.ahmedmili.thunderbgservice.core.ThunderBgServiceHelper;
+import com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics;
+import com.ahmedmili.thunderbgservice.metrics.Tracer;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -116,14 +118,20 @@ public class StateManager {
         }
         
         // Effectuer la transition
+        long span = Tracer.begin("state.transition");
         AppState previousState = currentState;
         currentState = newState;
         
         Log.i(TAG, "State transition: " + previousState + " -> " + newState);
+        PerformanceMetrics.getInstance(context).onStateChanged(newState);
         
         // Appeler le listener après la transition
-        if (listener != null) {
-            listener.onAfterTransition(previousState, newState);
+        try {
+            if (listener != null) {
+                listener.onAfterTransition(previousState, newState);
+            }
+        } finally {
+            Tracer.end(span, span != 0 ? previousState + " -> " + newState : null);
         }
         
         return true;
@@ -133,12 +141,18 @@ public class StateManager {
      * Force une transition sans validation (usage interne uniquement)
      */
     public void forceTransition(AppState newState) {
+        long span = Tracer.begin("state.forceTransition");
         AppState previousState = currentState;
         currentState = newState;
         Log.w(TAG, "Force transition: " + previousState + " -> " + newState);
+        PerformanceMetrics.getInstance(context).onStateChanged(newState);
         
-        if (listener != null) {
-            listener.onAfterTransition(previousState, newState);
+        try {
+            if (listener != null) {
+                listener.onAfterTransition(previousState, newState);
+            }
+        } finally {
+            Tracer.end(span, span != 0 ? previousState + " -> " + newState : null);
         }
     }
     
@@ -3,12 +3,14 @@ package com.ahmedmili.thunderbgservice.tasks;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
+import com.ahmedmili.thunderbgservice.metrics.InstrumentedExecutors;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Delayed;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -34,26 +36,36 @@ public class BackgroundTaskManager {
         }
         unregisterTask(context, taskId);
         if (scheduler == null) {
-            scheduler = Executors.newScheduledThreadPool(2);
+            scheduler = InstrumentedExecutors.newScheduledThreadPool("tasks", 2);
         }
         taskInstances.put(taskId, task);
         ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(
             () -> {
-                long startTime = System.currentTimeMillis();
+                long startTime = System.nanoTime();
+                long startCpu = android.os.Debug.threadCpuTimeNanos();
+                long span = com.ahmedmili.thunderbgservice.metrics.Tracer.begin("task.execute");
                 try {
                     task.execute(context.getApplicationContext(), taskId);
-                    long executionTime = System.currentTimeMillis() - startTime;
+                    long executionTime = System.nanoTime() - startTime;
                     
                     // Enregistrer les métriques
                     com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics.getInstance(context)
-                        .recordTaskExecution(taskId, executionTime);
+                        .recordTaskExecutionNanos(taskId, executionTime);
+                    com.ahmedmili.thunderbgservice.metrics.EnergyModel.getInstance(context)
+                        .recordTaskExecution(taskId, android.os.Debug.threadCpuTimeNanos() - startCpu, executionTime);
                     
-                    Log.d(TAG, "Task executed: " + taskId + " (time: " + executionTime + "ms)");
+                    Log.d(TAG, "Task executed: " + taskId + " (time: " + executionTime / 1000000 + "ms)");
                 } catch (Exception e) {
-                    long executionTime = System.currentTimeMillis() - startTime;
-                    com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics.getInstance(context)
-                        .recordTaskExecution(taskId, executionTime);
+                    long executionTime = System.nanoTime() - startTime;
+                    com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics metrics =
+                        com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics.getInstance(context);
+                    metrics.recordTaskExecutionNanos(taskId, executionTime);
+                    metrics.recordTaskFailure(taskId);
+                    com.ahmedmili.thunderbgservice.metrics.EnergyModel.getInstance(context)
+                        .recordTaskExecution(taskId, android.os.Debug.threadCpuTimeNanos() - startCpu, executionTime);
                     Log.e(TAG, "Error executing task: " + taskId, e);
+                } finally {
+                    com.ahmedmili.thunderbgservice.metrics.Tracer.end(span, taskId);
                 }
             },
             0,
@@ -104,6 +116,22 @@ public class BackgroundTaskManager {
         Log.i(TAG, "All tasks stopped");
     }
     
+    /**
+     * Nombre d'exécutions de tâches dont l'heure est passée mais qui attendent
+     * encore un thread du scheduler (retard accumulé).
+     */
+    public static int getReadyQueueDepth() {
+        ScheduledExecutorService current = scheduler;
+        if (!(current instanceof ThreadPoolExecutor)) return 0;
+        int ready = 0;
+        for (Runnable runnable : ((ThreadPoolExecutor) current).getQueue()) {
+            if (runnable instanceof Delayed && ((Delayed) runnable).getDelay(TimeUnit.MILLISECONDS) <= 0) {
+                ready++;
+            }
+        }
+        return ready;
+    }
+    
     private static void saveTaskConfig(Context context, String taskId, String className, long intervalMs) {
         SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
         prefs.edit()
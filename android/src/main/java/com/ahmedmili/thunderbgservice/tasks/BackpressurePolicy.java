@@ -0,0 +1,54 @@
+package com.ahmedmili.thunderbgservice.tasks;
+
+/**
+ * Politiques de contre-pression appliquées aux événements d'une tâche avant leur émission vers JS.
+ */
+public enum BackpressurePolicy {
+    /**
+     * Aucune limite: chaque événement est émis immédiatement (comportement par défaut)
+     */
+    UNBOUNDED("unbounded"),
+
+    /**
+     * File bornée: quand elle est pleine, le plus ancien événement est abandonné
+     */
+    DROP_OLDEST("drop-oldest"),
+
+    /**
+     * File bornée: quand elle est pleine, le nouvel événement est abandonné
+     */
+    DROP_NEWEST("drop-newest"),
+
+    /**
+     * Seul le dernier événement en attente est conservé
+     */
+    LATEST_ONLY("latest-only"),
+
+    /**
+     * Au plus un événement émis toutes les N millisecondes, les autres sont abandonnés
+     */
+    SAMPLE("sample");
+
+    private final String value;
+
+    BackpressurePolicy(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Convertit une chaîne en BackpressurePolicy (UNBOUNDED si inconnue)
+     */
+    public static BackpressurePolicy fromString(String value) {
+        if (value == null) return UNBOUNDED;
+        for (BackpressurePolicy policy : BackpressurePolicy.values()) {
+            if (policy.value.equalsIgnoreCase(value) || policy.name().equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+        return UNBOUNDED;
+    }
+}
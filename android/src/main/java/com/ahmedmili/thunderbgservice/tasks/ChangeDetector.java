@@ -0,0 +1,229 @@
+package com.ahmedmili.thunderbgservice.tasks;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import com.ahmedmili.thunderbgservice.metrics.PerformanceMetrics;
+import org.json.JSONObject;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mode "émettre sur changement" (opt-in, par taskId).
+ *
+ * Conserve un condensé 64 bits (FNV-1a) du dernier événement émis et du dernier résultat
+ * stocké par tâche, et supprime les valeurs identiques avant tout appel à
+ * notifyListeners ou écriture dans TaskResultStorage.
+ *
+ * En mode deltaOnly, un événement JSONObject ne contient que les champs modifiés
+ * depuis le précédent (les champs supprimés valent null); le premier contient tous les champs.
+ *
+ * L'état d'un événement n'est enregistré qu'à sa livraison (filterEvent), après la politique
+ * de contre-pression: un événement abandonné par celle-ci ne compte pas comme reçu par JS.
+ * Avant la politique, isUnchanged() écarte sans rien modifier les valeurs identiques à la
+ * dernière livrée.
+ */
+public class ChangeDetector {
+    private static final String TAG = "ChangeDetector";
+    private static final String PREFS_NAME = "thunder_bg_task_change_detection";
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final Map<String, TaskState> states = new ConcurrentHashMap<>();
+    private static volatile boolean configLoaded = false;
+
+    /**
+     * Active ou désactive le mode "émettre sur changement" pour une tâche (persisté).
+     */
+    public static void setEmitOnChange(Context context, String taskId, boolean enabled, boolean deltaOnly) {
+        ensureConfigLoaded(context);
+        SharedPreferences.Editor editor = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+        if (enabled) {
+            states.put(taskId, new TaskState(deltaOnly));
+            editor.putBoolean(taskId, deltaOnly);
+        } else {
+            states.remove(taskId);
+            editor.remove(taskId);
+        }
+        editor.apply();
+        Log.i(TAG, "Emit on change for " + taskId + ": " + enabled + (enabled ? " (deltaOnly=" + deltaOnly + ")" : ""));
+    }
+
+    public static boolean isEnabled(Context context, String taskId) {
+        ensureConfigLoaded(context);
+        return states.containsKey(taskId);
+    }
+
+    /**
+     * Indique, sans rien enregistrer, si un événement est identique au dernier livré à JS
+     * (toujours faux si le mode est désactivé). Une valeur écartée est comptée comme supprimée.
+     */
+    public static boolean isUnchanged(Context context, String taskId, Object data) {
+        ensureConfigLoaded(context);
+        TaskState state = states.get(taskId);
+        if (state == null) {
+            return false;
+        }
+        boolean unchanged;
+        synchronized (state) {
+            if (state.deltaOnly && data instanceof JSONObject) {
+                unchanged = sameFields(state, (JSONObject) data);
+            } else {
+                unchanged = state.hasEvent && state.lastEventDigest == digest(data);
+            }
+        }
+        if (unchanged) {
+            record(context, true);
+        }
+        return unchanged;
+    }
+
+    /**
+     * Filtre un événement de tâche au moment de sa livraison et enregistre son état.
+     * @return la valeur à émettre (éventuellement réduite aux champs modifiés), ou null si inchangée
+     */
+    public static Object filterEvent(Context context, String taskId, Object data) {
+        ensureConfigLoaded(context);
+        TaskState state = states.get(taskId);
+        if (state == null) {
+            return data;
+        }
+        Object result;
+        synchronized (state) {
+            if (state.deltaOnly && data instanceof JSONObject) {
+                result = diffFields(state, (JSONObject) data);
+            } else {
+                long digest = digest(data);
+                result = state.hasEvent && state.lastEventDigest == digest ? null : data;
+                state.lastEventDigest = digest;
+                state.hasEvent = true;
+            }
+        }
+        record(context, result == null);
+        return result;
+    }
+
+    /**
+     * Indique si un champ de résultat doit être écrit (toujours vrai si le mode est désactivé).
+     */
+    public static boolean shouldStore(Context context, String taskId, String key, String value) {
+        ensureConfigLoaded(context);
+        TaskState state = states.get(taskId);
+        if (state == null) {
+            return true;
+        }
+        long digest = digest(value);
+        Long previous = state.storedDigests.put(key, digest);
+        boolean changed = previous == null || previous != digest;
+        record(context, !changed);
+        return changed;
+    }
+
+    /**
+     * Indique si un résultat complet doit être écrit (à appeler avant l'ajout du timestamp).
+     */
+    public static boolean shouldStore(Context context, String taskId, JSONObject data) {
+        return shouldStore(context, taskId, "\u0000", data.toString());
+    }
+
+    /**
+     * Oublie les derniers condensés d'une tâche (ex: résultat effacé).
+     */
+    public static void reset(String taskId) {
+        TaskState state = states.get(taskId);
+        if (state != null) {
+            synchronized (state) {
+                state.hasEvent = false;
+                state.lastFields.clear();
+            }
+            state.storedDigests.clear();
+        }
+    }
+
+    private static boolean sameFields(TaskState state, JSONObject data) {
+        if (data.length() != state.lastFields.size()) return false;
+        Iterator<String> keys = data.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Long previous = state.lastFields.get(key);
+            if (previous == null || previous != digest(data.opt(key))) return false;
+        }
+        return true;
+    }
+
+    private static JSONObject diffFields(TaskState state, JSONObject data) {
+        try {
+            JSONObject delta = new JSONObject();
+            Map<String, Long> fields = new HashMap<>();
+            Iterator<String> keys = data.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object value = data.opt(key);
+                long digest = digest(value);
+                fields.put(key, digest);
+                Long previous = state.lastFields.get(key);
+                if (previous == null || previous != digest) {
+                    delta.put(key, value);
+                }
+            }
+            for (String key : state.lastFields.keySet()) {
+                if (!fields.containsKey(key)) {
+                    delta.put(key, JSONObject.NULL);
+                }
+            }
+            state.lastFields.clear();
+            state.lastFields.putAll(fields);
+            return delta.length() > 0 ? delta : null;
+        } catch (Exception e) {
+            Log.w(TAG, "Error computing delta, emitting full value", e);
+            return data;
+        }
+    }
+
+    private static void record(Context context, boolean suppressed) {
+        try {
+            PerformanceMetrics.getInstance(context).recordChangeDetection(suppressed);
+        } catch (Exception ignored) {}
+    }
+
+    /**
+     * Condensé FNV-1a 64 bits de la représentation textuelle de la valeur.
+     */
+    static long digest(Object value) {
+        String text = value == null ? "null" : value.toString();
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static void ensureConfigLoaded(Context context) {
+        if (configLoaded) return;
+        synchronized (ChangeDetector.class) {
+            if (configLoaded) return;
+            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+                if (entry.getValue() instanceof Boolean) {
+                    states.put(entry.getKey(), new TaskState((Boolean) entry.getValue()));
+                }
+            }
+            configLoaded = true;
+        }
+    }
+
+    private static final class TaskState {
+        final boolean deltaOnly;
+        final Map<String, Long> lastFields = new HashMap<>();
+        final Map<String, Long> storedDigests = new ConcurrentHashMap<>();
+        long lastEventDigest;
+        boolean hasEvent;
+
+        TaskState(boolean deltaOnly) {
+            this.deltaOnly = deltaOnly;
+        }
+    }
+}
@@ -1,81 +1,381 @@
 package com.ahmedmili.thunderbgservice.tasks;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.util.Log;
 import com.getcapacitor.JSObject;
 import com.ahmedmili.thunderbgservice.core.ThunderBgServicePlugin;
+import com.ahmedmili.thunderbgservice.metrics.InstrumentedExecutors;
 import org.json.JSONObject;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Émetteur d'événements vers JS (si l'app est active).
  * Permet aux tâches Java d'émettre des événements vers le code JS/TS.
- * 
- * Note: Les événements ne sont émis que si l'app est active (process JS vivant).
- * Si l'app est fermée, utilisez TaskResultStorage pour stocker les données.
+ *
+ * Note: Les événements ne sont émis directement que si l'app est active (process JS vivant).
+ * Si l'app est fermée, chaque événement est ajouté dans l'ordre à TaskEventOutbox
+ * et rejoué vers JS ("taskEventBatch") au prochain chargement du plugin.
+ *
+ * Une politique de contre-pression (BackpressurePolicy) peut être définie par taskId.
+ * Elle est appliquée avant toute construction de JSObject. notifyListeners() ne fait que
+ * poster vers la webview et rend la main aussitôt: il ne renseigne pas sur le rythme de
+ * consommation. Les files bornées sont donc vidées par un thread dédié à un débit fixé par
+ * tâche (maxEventsPerSecond); c'est ce débit qui fait déborder la file, et donc agir
+ * drop-oldest, drop-newest et latest-only, quand la tâche produit plus vite.
+ *
+ * Les événements des tâches qu'aucun listener JS n'observe (voir TaskEventSubscriptions)
+ * sont abandonnés en premier, avant toute allocation.
  */
 public class TaskEventEmitter {
     private static final String TAG = "TaskEventEmitter";
-    
+    private static final String PREFS_NAME = "thunder_bg_task_events";
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final long DEFAULT_SAMPLE_INTERVAL_MS = 1000;
+    public static final double DEFAULT_MAX_EVENTS_PER_SECOND = 10.0;
+
+    private static final Map<String, TaskChannel> channels = new ConcurrentHashMap<>();
+    private static final AtomicLongArray shedByPolicy = new AtomicLongArray(BackpressurePolicy.values().length);
+    private static final AtomicLong unobservedCount = new AtomicLong(0);
+    private static final ScheduledExecutorService dispatcher = InstrumentedExecutors.newScheduledThreadPool("taskEvents", 1);
+    private static volatile boolean configLoaded = false;
+
     public static void emit(Context context, String taskId, Object data) {
+        enqueue(context, taskId, data);
+    }
+
+    public static void emit(Context context, String taskId, JSONObject data) {
+        enqueue(context, taskId, data);
+    }
+
+    /**
+     * Définit la politique de contre-pression d'une tâche (persistée).
+     *
+     * @param capacity Taille de la file pour DROP_OLDEST / DROP_NEWEST
+     * @param sampleIntervalMs Intervalle minimal entre deux événements pour SAMPLE
+     * @param maxEventsPerSecond Débit de livraison des files (DROP_OLDEST, DROP_NEWEST, LATEST_ONLY)
+     */
+    public static void setBackpressure(Context context, String taskId, BackpressurePolicy policy,
+                                       int capacity, long sampleIntervalMs, double maxEventsPerSecond) {
+        ensureConfigLoaded(context);
+        if (policy == null || policy == BackpressurePolicy.UNBOUNDED) {
+            clearBackpressure(context, taskId);
+            return;
+        }
+        double rate = maxEventsPerSecond > 0 ? maxEventsPerSecond : DEFAULT_MAX_EVENTS_PER_SECOND;
+        TaskChannel channel = new TaskChannel(policy,
+            capacity > 0 ? capacity : DEFAULT_CAPACITY,
+            sampleIntervalMs > 0 ? sampleIntervalMs : DEFAULT_SAMPLE_INTERVAL_MS,
+            Math.max(1, (long) (1000 / rate)));
+        TaskChannel previous = channels.put(taskId, channel);
+        if (previous != null && previous.flushInto(channel)) {
+            // Ne pas perdre les événements déjà en file
+            scheduleDrain(channel, taskId);
+        }
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+            .putString(taskId, policy.getValue() + "|" + channel.capacity + "|" + channel.sampleIntervalMs
+                + "|" + channel.emitIntervalMs)
+            .apply();
+        Log.i(TAG, "Backpressure for " + taskId + ": " + policy.getValue()
+            + " (capacity=" + channel.capacity + ", sampleIntervalMs=" + channel.sampleIntervalMs
+            + ", emitIntervalMs=" + channel.emitIntervalMs + ")");
+    }
+
+    /**
+     * Revient à la politique UNBOUNDED pour une tâche.
+     */
+    public static void clearBackpressure(Context context, String taskId) {
+        ensureConfigLoaded(context);
+        // Une file encore pleine continue d'être vidée à son débit par le drain en cours
+        channels.remove(taskId);
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().remove(taskId).apply();
+    }
+
+    /**
+     * Nombre d'événements abandonnés, par politique.
+     */
+    public static long getShedCount(BackpressurePolicy policy) {
+        return shedByPolicy.get(policy.ordinal());
+    }
+
+    /**
+     * Statistiques de contre-pression pour PerformanceMetrics.
+     */
+    public static JSONObject getBackpressureStats() {
+        JSONObject stats = new JSONObject();
         try {
-            ThunderBgServicePlugin plugin = ThunderBgServicePlugin.getInstance();
-            if (plugin != null) {
-                JSObject payload = new JSObject();
-                payload.put("taskId", taskId);
-                payload.put("data", data);
-                payload.put("timestamp", System.currentTimeMillis());
-                plugin.emitTaskEvent("taskEvent", payload);
-                Log.d(TAG, "Event emitted to JS: " + taskId);
-            } else {
-                // Plugin non disponible (app fermée), stocker dans ResultStorage
-                Log.d(TAG, "Plugin not available, storing in ResultStorage");
-                if (data instanceof String) {
-                    TaskResultStorage.saveResult(context, taskId, "lastEvent", (String) data);
-                } else {
-                    JSONObject json = new JSONObject();
-                    json.put("data", data.toString());
-                    TaskResultStorage.saveResult(context, taskId, json);
+            JSONObject shed = new JSONObject();
+            for (BackpressurePolicy policy : BackpressurePolicy.values()) {
+                shed.put(policy.getValue(), shedByPolicy.get(policy.ordinal()));
+            }
+            stats.put("shed", shed);
+            stats.put("unobserved", unobservedCount.get());
+            JSONObject tasks = new JSONObject();
+            for (Map.Entry<String, TaskChannel> entry : channels.entrySet()) {
+                TaskChannel channel = entry.getValue();
+                JSONObject task = new JSONObject();
+                task.put("policy", channel.policy.getValue());
+                task.put("shed", channel.shed.get());
+                task.put("queued", channel.size());
+                if (channel.isQueued()) {
+                    task.put("maxEventsPerSecond", 1000.0 / channel.emitIntervalMs);
                 }
+                tasks.put(entry.getKey(), task);
             }
+            stats.put("tasks", tasks);
         } catch (Exception e) {
-            Log.e(TAG, "Error emitting event", e);
-            // En cas d'erreur, stocker dans ResultStorage
-            try {
-                if (data instanceof String) {
-                    TaskResultStorage.saveResult(context, taskId, "lastEvent", (String) data);
-                } else {
-                    JSONObject json = new JSONObject();
-                    json.put("data", data.toString());
-                    TaskResultStorage.saveResult(context, taskId, json);
-                }
-            } catch (Exception ex) {
-                Log.e(TAG, "Error storing fallback", ex);
+            Log.w(TAG, "Error building backpressure stats", e);
+        }
+        return stats;
+    }
+
+    /**
+     * Nombre total d'événements en attente dans les files de contre-pression.
+     */
+    public static int getQueuedCount() {
+        int queued = 0;
+        for (TaskChannel channel : channels.values()) {
+            queued += channel.size();
+        }
+        return queued;
+    }
+
+    private static void enqueue(Context context, String taskId, Object data) {
+        // Aucun listener JS intéressé: abandonner avant toute sérialisation
+        if (!TaskEventSubscriptions.isObserved(taskId)) {
+            unobservedCount.incrementAndGet();
+            return;
+        }
+        // Mode "émettre sur changement": ignorer les valeurs identiques à la dernière livrée
+        // (l'état n'est enregistré qu'à la livraison, après la politique de contre-pression)
+        if (ChangeDetector.isUnchanged(context, taskId, data)) {
+            return;
+        }
+        ensureConfigLoaded(context);
+        TaskChannel channel = channels.get(taskId);
+        if (channel == null) {
+            deliverChanged(context, taskId, data, System.currentTimeMillis());
+            return;
+        }
+        if (channel.policy == BackpressurePolicy.SAMPLE) {
+            if (channel.tryAcquireSample(SystemClock.elapsedRealtime())) {
+                deliverChanged(context, taskId, data, System.currentTimeMillis());
+            } else {
+                shed(channel);
             }
+            return;
+        }
+        PendingEvent event = new PendingEvent(context.getApplicationContext(), data, System.currentTimeMillis());
+        if (channel.offer(event)) {
+            scheduleDrain(channel, taskId);
         }
     }
-    
-    public static void emit(Context context, String taskId, JSONObject data) {
+
+    /**
+     * Planifie la livraison du prochain événement de la file, au plus tôt emitIntervalMs
+     * après la précédente. Un seul drain est planifié à la fois par file.
+     */
+    private static void scheduleDrain(TaskChannel channel, String taskId) {
+        long delay = Math.max(0, channel.nextEmitAt - SystemClock.elapsedRealtime());
+        dispatcher.schedule(() -> drainOne(channel, taskId), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void drainOne(TaskChannel channel, String taskId) {
+        PendingEvent event;
+        boolean more;
+        synchronized (channel) {
+            event = channel.poll();
+            more = channel.draining;
+            // Avant de relâcher la file: un offer() concurrent planifie d'après cette échéance
+            if (event != null) channel.nextEmitAt = SystemClock.elapsedRealtime() + channel.emitIntervalMs;
+        }
+        if (event == null) return;
+        deliverChanged(event.context, taskId, event.data, event.timestamp);
+        if (more) {
+            scheduleDrain(channel, taskId);
+        }
+    }
+
+    private static void shed(TaskChannel channel) {
+        channel.shed.incrementAndGet();
+        shedByPolicy.incrementAndGet(channel.policy.ordinal());
+    }
+
+    /**
+     * Livraison d'un événement ayant passé la politique: le delta est calculé par rapport au
+     * dernier événement livré, puis l'état de changement est enregistré.
+     */
+    private static void deliverChanged(Context context, String taskId, Object data, long timestamp) {
+        data = ChangeDetector.filterEvent(context, taskId, data);
+        if (data != null) {
+            deliver(context, taskId, data, timestamp);
+        }
+    }
+
+    private static void deliver(Context context, String taskId, Object data, long timestamp) {
         try {
             ThunderBgServicePlugin plugin = ThunderBgServicePlugin.getInstance();
-            if (plugin != null) {
+            TaskEventOutbox outbox = TaskEventOutbox.getInstance(context);
+            // Tant que l'outbox n'est pas entièrement rejouée, y ajouter aussi les
+            // nouveaux événements pour préserver l'ordre côté JS
+            long seq = plugin != null ? outbox.appendIfUnreplayed(taskId, data, timestamp)
+                : outbox.append(taskId, data, timestamp);
+            if (seq == 0) {
                 JSObject payload = new JSObject();
                 payload.put("taskId", taskId);
                 payload.put("data", data);
-                payload.put("timestamp", System.currentTimeMillis());
+                payload.put("timestamp", timestamp);
                 plugin.emitTaskEvent("taskEvent", payload);
                 Log.d(TAG, "Event emitted to JS: " + taskId);
-            } else {
-                // Plugin non disponible, stocker dans ResultStorage
-                TaskResultStorage.saveResult(context, taskId, data);
+            } else if (seq < 0) {
+                storeFallback(context, taskId, data);
             }
         } catch (Exception e) {
             Log.e(TAG, "Error emitting event", e);
-            try {
-                TaskResultStorage.saveResult(context, taskId, data);
-            } catch (Exception ex) {
-                Log.e(TAG, "Error storing fallback", ex);
+            storeFallback(context, taskId, data);
+        }
+    }
+
+    /**
+     * Dernier recours si l'outbox est indisponible: conserver la dernière valeur
+     * dans TaskResultStorage.
+     */
+    private static void storeFallback(Context context, String taskId, Object data) {
+        try {
+            if (data instanceof JSONObject) {
+                TaskResultStorage.saveResult(context, taskId, (JSONObject) data);
+            } else if (data instanceof String) {
+                TaskResultStorage.saveResult(context, taskId, "lastEvent", (String) data);
+            } else {
+                JSONObject json = new JSONObject();
+                json.put("data", String.valueOf(data));
+                TaskResultStorage.saveResult(context, taskId, json);
             }
+        } catch (Exception ex) {
+            Log.e(TAG, "Error storing fallback", ex);
         }
     }
-}
 
+    /**
+     * Charge une seule fois les politiques persistées (les tâches tournent aussi app fermée).
+     */
+    private static void ensureConfigLoaded(Context context) {
+        if (configLoaded) return;
+        synchronized (TaskEventEmitter.class) {
+            if (configLoaded) return;
+            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+                try {
+                    String[] parts = String.valueOf(entry.getValue()).split("\\|");
+                    BackpressurePolicy policy = BackpressurePolicy.fromString(parts[0]);
+                    if (policy != BackpressurePolicy.UNBOUNDED && parts.length >= 3) {
+                        // Configurations antérieures au débit de livraison: débit par défaut
+                        long emitIntervalMs = parts.length > 3 ? Long.parseLong(parts[3])
+                            : (long) (1000 / DEFAULT_MAX_EVENTS_PER_SECOND);
+                        channels.put(entry.getKey(), new TaskChannel(policy,
+                            Integer.parseInt(parts[1]), Long.parseLong(parts[2]), emitIntervalMs));
+                    }
+                } catch (Exception e) {
+                    Log.w(TAG, "Invalid backpressure config for task: " + entry.getKey(), e);
+                }
+            }
+            configLoaded = true;
+        }
+    }
+
+    private static final class PendingEvent {
+        final Context context;
+        final Object data;
+        final long timestamp;
+
+        PendingEvent(Context context, Object data, long timestamp) {
+            this.context = context;
+            this.data = data;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * État de contre-pression d'une tâche.
+     */
+    private static final class TaskChannel {
+        final BackpressurePolicy policy;
+        final int capacity;
+        final long sampleIntervalMs;
+        final long emitIntervalMs;
+        final AtomicLong shed = new AtomicLong(0);
+        final AtomicLong lastSampleAt = new AtomicLong(Long.MIN_VALUE / 2);
+        // elapsedRealtime à partir duquel le prochain événement peut être livré
+        volatile long nextEmitAt = 0;
+        // Un drain est planifié (vrai tant que la file n'a pas été vidée)
+        boolean draining = false;
+        private final ArrayDeque<PendingEvent> queue = new ArrayDeque<>();
+
+        TaskChannel(BackpressurePolicy policy, int capacity, long sampleIntervalMs, long emitIntervalMs) {
+            this.policy = policy;
+            this.capacity = policy == BackpressurePolicy.LATEST_ONLY ? 1 : capacity;
+            this.sampleIntervalMs = sampleIntervalMs;
+            this.emitIntervalMs = emitIntervalMs;
+        }
+
+        boolean isQueued() {
+            return policy != BackpressurePolicy.SAMPLE;
+        }
+
+        /**
+         * @return true si aucun drain n'était planifié (l'appelant doit en planifier un)
+         */
+        synchronized boolean offer(PendingEvent event) {
+            if (queue.size() >= capacity) {
+                if (policy == BackpressurePolicy.DROP_NEWEST) {
+                    shed(this);
+                    return false;
+                }
+                // DROP_OLDEST et LATEST_ONLY: remplacer le plus ancien
+                queue.pollFirst();
+                shed(this);
+            }
+            queue.addLast(event);
+            if (draining) return false;
+            draining = true;
+            return true;
+        }
+
+        /**
+         * Retire le prochain événement; le drain s'arrête quand la file est vide.
+         */
+        synchronized PendingEvent poll() {
+            PendingEvent event = queue.pollFirst();
+            if (queue.isEmpty()) draining = false;
+            return event;
+        }
+
+        synchronized int size() {
+            return queue.size();
+        }
+
+        /**
+         * @return true si other attend un drain
+         */
+        synchronized boolean flushInto(TaskChannel other) {
+            boolean schedule = false;
+            PendingEvent event;
+            while ((event = queue.pollFirst()) != null) {
+                schedule |= other.offer(event);
+            }
+            return schedule;
+        }
+
+        boolean tryAcquireSample(long now) {
+            long last = lastSampleAt.get();
+            return now - last >= sampleIntervalMs && lastSampleAt.compareAndSet(last, now);
+        }
+    }
+}
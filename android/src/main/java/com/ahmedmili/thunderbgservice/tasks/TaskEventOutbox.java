@@ -0,0 +1,369 @@
+package com.ahmedmili.thunderbgservice.tasks;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.ahmedmili.thunderbgservice.core.ThunderBgServicePlugin;
+import com.ahmedmili.thunderbgservice.metrics.InstrumentedExecutors;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+
+/**
+ * Outbox durable des événements de tâches émis pendant que la couche JS est absente.
+ *
+ * Chaque événement est ajouté dans l'ordre à un fichier append-only (taille plafonnée),
+ * rejoué vers JS par lots quand le plugin est chargé, puis tronqué une fois acquitté
+ * par JS via ackTaskEvents({ upToSeq }). Les événements non acquittés sont rejoués au
+ * prochain chargement (livraison "au moins une fois", dédupliquer via seq).
+ *
+ * Format d'un enregistrement: [int longueur][long seq][int crc32][JSON UTF-8]
+ * JSON: { "seq": long, "taskId": string, "timestamp": long, "data": any }
+ */
+public class TaskEventOutbox {
+    private static final String TAG = "TaskEventOutbox";
+    private static final String FILE_NAME = "thunder_bg_task_events.outbox";
+    private static final int HEADER_SIZE = 4 + 8 + 4;
+    private static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024; // 16 Mo
+    private static final int REPLAY_BATCH_SIZE = 500;
+
+    private static TaskEventOutbox instance;
+
+    private final File file;
+    private final ExecutorService executor = InstrumentedExecutors.newSingleThreadExecutor("taskEventOutbox");
+    private FileOutputStream out;
+    private long size = 0;          // Taille valide du fichier (octets)
+    private long replayOffset = 0;  // Position du prochain enregistrement à rejouer
+    private int replaysInFlight = 0; // Rejeux demandés dont le dernier lot n'est pas encore émis
+    private long nextSeq = 1;
+    private long pendingCount = 0;  // Enregistrements présents dans le fichier
+    private long droppedCount = 0;  // Enregistrements supprimés par le plafond de taille
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    private TaskEventOutbox(Context context) {
+        this.file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+        recover();
+    }
+
+    public static synchronized TaskEventOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new TaskEventOutbox(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Ajoute un événement à la fin de l'outbox.
+     * @return le numéro de séquence attribué, ou -1 en cas d'échec
+     */
+    public synchronized long append(String taskId, Object data, long timestamp) {
+        long seq = nextSeq;
+        try {
+            JSONObject record = new JSONObject();
+            record.put("seq", seq);
+            record.put("taskId", taskId);
+            record.put("timestamp", timestamp);
+            record.put("data", toJsonValue(data));
+            byte[] payload = record.toString().getBytes(StandardCharsets.UTF_8);
+            long recordSize = HEADER_SIZE + payload.length;
+
+            if (size + recordSize > maxBytes) {
+                // Plafond atteint: supprimer les plus anciens jusqu'à 75% du plafond
+                dropOldest(size + recordSize - (maxBytes * 3 / 4));
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            ByteBuffer buffer = ByteBuffer.allocate((int) recordSize);
+            buffer.putInt(payload.length).putLong(seq).putInt((int) crc.getValue()).put(payload);
+            openForAppend().write(buffer.array());
+
+            size += recordSize;
+            pendingCount++;
+            nextSeq++;
+            return seq;
+        } catch (Exception e) {
+            Log.e(TAG, "Error appending event for task: " + taskId, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Ajoute l'événement seulement si un rejeu est en cours ou à faire (vérification et ajout
+     * atomiques: un rejeu ne peut pas se terminer entre les deux).
+     * @return le numéro de séquence attribué, 0 si l'événement peut être livré en direct,
+     *         -1 en cas d'échec
+     */
+    public synchronized long appendIfUnreplayed(String taskId, Object data, long timestamp) {
+        return hasUnreplayed() ? append(taskId, data, timestamp) : 0;
+    }
+
+    /**
+     * Indique si des événements écrits n'ont pas encore été rejoués vers JS.
+     * Tant que c'est le cas, les nouveaux événements doivent passer par l'outbox
+     * pour conserver l'ordre.
+     */
+    public synchronized boolean hasUnreplayed() {
+        // Le dernier lot est émis hors verrou: rester "non rejoué" jusqu'à son émission
+        return replaysInFlight > 0 || replayOffset < size;
+    }
+
+    /**
+     * Rejoue tous les événements non acquittés vers JS, par lots de REPLAY_BATCH_SIZE,
+     * sous la forme d'événements "taskEventBatch" retenus jusqu'à l'ajout d'un listener.
+     * Chaque rejeu repart du début du fichier (premier événement non acquitté): un nouveau
+     * contexte JS (rechargement de la webview) reçoit aussi les événements déjà rejoués
+     * au précédent mais jamais acquittés.
+     */
+    public void replay(ThunderBgServicePlugin plugin) {
+        synchronized (this) {
+            // Dès maintenant, les nouveaux événements passent par l'outbox (ordre conservé)
+            replaysInFlight++;
+        }
+        executor.execute(() -> {
+            long startTime = SystemClock.elapsedRealtime();
+            long replayed = 0;
+            synchronized (this) {
+                // Les événements acquittés ont été retirés: la tête du fichier est le premier non acquitté
+                replayOffset = 0;
+            }
+            while (true) {
+                JSArray events = new JSArray();
+                long firstSeq = -1;
+                long lastSeq = -1;
+                synchronized (this) {
+                    if (replayOffset >= size) {
+                        // Dernier lot émis: les événements suivants peuvent être livrés en direct
+                        replaysInFlight--;
+                        break;
+                    }
+                    try (DataInputStream in = openInput()) {
+                        skipFully(in, replayOffset);
+                        long position = replayOffset;
+                        while (position < size && events.length() < REPLAY_BATCH_SIZE) {
+                            int length = in.readInt();
+                            long seq = in.readLong();
+                            in.readInt(); // crc, vérifié à la récupération
+                            byte[] payload = new byte[length];
+                            in.readFully(payload);
+                            position += HEADER_SIZE + length;
+                            events.put(new JSObject(new String(payload, StandardCharsets.UTF_8)));
+                            if (firstSeq < 0) firstSeq = seq;
+                            lastSeq = seq;
+                        }
+                        replayOffset = position;
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error reading outbox, skipping remaining events", e);
+                        replayOffset = size;
+                        replaysInFlight--;
+                        break;
+                    }
+                }
+                JSObject payload = new JSObject();
+                payload.put("events", events);
+                payload.put("firstSeq", firstSeq);
+                payload.put("lastSeq", lastSeq);
+                plugin.emitTaskEvent("taskEventBatch", payload, true);
+                replayed += events.length();
+            }
+            if (replayed > 0) {
+                long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+                Log.i(TAG, "Replayed " + replayed + " events in " + elapsed + "ms ("
+                    + (replayed * 1000 / elapsed) + " events/s)");
+            }
+        });
+    }
+
+    /**
+     * Acquitte tous les événements jusqu'à upToSeq (inclus) et les retire du fichier.
+     */
+    public void acknowledge(long upToSeq) {
+        executor.execute(() -> {
+            synchronized (this) {
+                if (size == 0) {
+                    return;
+                }
+                try {
+                    long offset = 0;
+                    long removed = 0;
+                    try (DataInputStream in = openInput()) {
+                        while (offset < size) {
+                            int length = in.readInt();
+                            long seq = in.readLong();
+                            if (seq > upToSeq) break;
+                            skipFully(in, 4 + length);
+                            offset += HEADER_SIZE + length;
+                            removed++;
+                        }
+                    }
+                    if (offset > 0) {
+                        truncateHead(offset);
+                        pendingCount -= removed;
+                        Log.d(TAG, "Acknowledged " + removed + " events (upToSeq=" + upToSeq + ")");
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Error acknowledging events", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Définit la taille maximale du fichier d'outbox (en octets).
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(64 * 1024, maxBytes);
+    }
+
+    public synchronized long getPendingCount() {
+        return pendingCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Relit le fichier au démarrage: retrouve la prochaine séquence et tronque
+     * un éventuel enregistrement partiel (process tué pendant une écriture).
+     */
+    private void recover() {
+        if (!file.exists()) {
+            return;
+        }
+        long offset = 0;
+        try (DataInputStream in = openInput()) {
+            while (true) {
+                int length = in.readInt();
+                long seq = in.readLong();
+                int expectedCrc = in.readInt();
+                if (length < 0 || length > maxBytes) break;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, payload.length);
+                if ((int) crc.getValue() != expectedCrc) break;
+                offset += HEADER_SIZE + length;
+                nextSeq = seq + 1;
+                pendingCount++;
+            }
+        } catch (EOFException ignored) {
+            // Fin de fichier (éventuellement enregistrement partiel)
+        } catch (IOException e) {
+            Log.e(TAG, "Error recovering outbox", e);
+        }
+        size = offset;
+        if (file.length() > offset) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(offset);
+                Log.w(TAG, "Truncated partial outbox record at offset " + offset);
+            } catch (IOException e) {
+                Log.e(TAG, "Error truncating outbox", e);
+            }
+        }
+        if (pendingCount > 0) {
+            Log.i(TAG, "Recovered " + pendingCount + " pending events (nextSeq=" + nextSeq + ")");
+        }
+    }
+
+    /**
+     * Supprime les enregistrements les plus anciens jusqu'à libérer au moins bytesToFree octets.
+     */
+    private void dropOldest(long bytesToFree) throws IOException {
+        long offset = 0;
+        long dropped = 0;
+        try (DataInputStream in = openInput()) {
+            while (offset < size && offset < bytesToFree) {
+                int length = in.readInt();
+                skipFully(in, 8 + 4 + length);
+                offset += HEADER_SIZE + length;
+                dropped++;
+            }
+        }
+        truncateHead(offset);
+        pendingCount -= dropped;
+        droppedCount += dropped;
+        Log.w(TAG, "Outbox full, dropped " + dropped + " oldest events");
+    }
+
+    /**
+     * Retire les offset premiers octets du fichier (copie de la fin puis renommage atomique).
+     */
+    private void truncateHead(long offset) throws IOException {
+        closeOutput();
+        if (offset >= size) {
+            new FileOutputStream(file).close();
+        } else {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (RandomAccessFile src = new RandomAccessFile(file, "r");
+                 DataOutputStream dst = new DataOutputStream(new FileOutputStream(tmp))) {
+                src.seek(offset);
+                byte[] buffer = new byte[64 * 1024];
+                long remaining = size - offset;
+                while (remaining > 0) {
+                    int read = src.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) break;
+                    dst.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to replace outbox file");
+            }
+        }
+        size = Math.max(0, size - offset);
+        replayOffset = Math.max(0, replayOffset - offset);
+    }
+
+    private FileOutputStream openForAppend() throws IOException {
+        if (out == null) {
+            out = new FileOutputStream(file, true);
+        }
+        return out;
+    }
+
+    private void closeOutput() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {}
+            out = null;
+        }
+    }
+
+    private DataInputStream openInput() throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+    }
+
+    private static void skipFully(DataInputStream in, long bytes) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) throw new EOFException();
+            remaining -= skipped;
+        }
+    }
+
+    private static Object toJsonValue(Object data) {
+        if (data == null) return JSONObject.NULL;
+        if (data instanceof JSONObject || data instanceof JSONArray || data instanceof String
+                || data instanceof Number || data instanceof Boolean) {
+            return data;
+        }
+        return data.toString();
+    }
+}
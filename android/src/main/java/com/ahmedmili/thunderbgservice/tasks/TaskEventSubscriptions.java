@@ -0,0 +1,143 @@
+package com.ahmedmili.thunderbgservice.tasks;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Intérêts déclarés par JS pour les événements de tâches (taskId exact ou motif avec '*').
+ *
+ * Tant qu'aucun intérêt n'a été déclaré, tous les événements sont émis (comportement historique).
+ * Dès le premier abonnement, les événements d'une tâche non observée sont abandonnés par
+ * TaskEventEmitter avant toute sérialisation.
+ *
+ * Lecture sans verrou: ensemble concurrent pour les ids exacts, et instantané immuable
+ * (motifs + cache des décisions par taskId) remplacé d'un bloc à chaque modification: une
+ * décision calculée avec d'anciens motifs ne peut être rangée que dans l'ancien cache. Le cache
+ * ne retient que le résultat des motifs (les ids exacts sont testés avant).
+ */
+public class TaskEventSubscriptions {
+    private static final String TAG = "TaskEventSubscriptions";
+
+    private static final Set<String> taskIds = ConcurrentHashMap.newKeySet();
+    private static volatile PatternSet patternSet = new PatternSet(new String[0]);
+    private static volatile boolean active = false;
+
+    /**
+     * Indique si un événement de cette tâche doit être émis vers JS.
+     */
+    public static boolean isObserved(String taskId) {
+        if (!active) return true;
+        PatternSet snapshot = patternSet;
+        String[] current = snapshot.patterns;
+        if (taskId == null) {
+            // Tâche sans id (accepté par emitTaskEvent): seul un motif couvrant "" l'observe ("*")
+            for (String pattern : current) {
+                if (matches(pattern, "")) return true;
+            }
+            return false;
+        }
+        if (taskIds.contains(taskId)) return true;
+        if (current.length == 0) return false;
+        Map<String, Boolean> cache = snapshot.decisions;
+        Boolean cached = cache.get(taskId);
+        if (cached != null) return cached;
+        boolean observed = false;
+        for (String pattern : current) {
+            if (matches(pattern, taskId)) {
+                observed = true;
+                break;
+            }
+        }
+        cache.put(taskId, observed);
+        return observed;
+    }
+
+    public static synchronized void subscribe(Collection<String> ids, Collection<String> newPatterns) {
+        if (ids != null) {
+            for (String id : ids) {
+                if (id != null) taskIds.add(id);
+            }
+        }
+        if (newPatterns != null && !newPatterns.isEmpty()) {
+            List<String> merged = new ArrayList<>(Arrays.asList(patternSet.patterns));
+            for (String pattern : newPatterns) {
+                if (pattern != null && !merged.contains(pattern)) merged.add(pattern);
+            }
+            patternSet = new PatternSet(merged.toArray(new String[0]));
+        }
+        active = true;
+        Log.d(TAG, "Subscriptions: ids=" + taskIds.size() + ", patterns=" + patternSet.patterns.length);
+    }
+
+    /**
+     * Retire des intérêts. Quand il n'en reste aucun, tous les événements sont de nouveau émis
+     * (comme avant le premier abonnement).
+     */
+    public static synchronized void unsubscribe(Collection<String> ids, Collection<String> oldPatterns) {
+        if (ids != null) {
+            for (String id : ids) {
+                if (id != null) taskIds.remove(id);
+            }
+        }
+        if (oldPatterns != null && !oldPatterns.isEmpty()) {
+            List<String> remaining = new ArrayList<>(Arrays.asList(patternSet.patterns));
+            remaining.removeAll(oldPatterns);
+            patternSet = new PatternSet(remaining.toArray(new String[0]));
+        }
+        if (taskIds.isEmpty() && patternSet.patterns.length == 0) {
+            // Plus aucun intérêt: retour à l'émission de tous les événements
+            active = false;
+        }
+        Log.d(TAG, "Subscriptions: ids=" + taskIds.size() + ", patterns=" + patternSet.patterns.length + ", active=" + active);
+    }
+
+    /**
+     * Supprime tous les intérêts et revient à l'émission de tous les événements.
+     */
+    public static synchronized void clear() {
+        active = false;
+        taskIds.clear();
+        patternSet = new PatternSet(new String[0]);
+    }
+
+    /**
+     * Motifs et décisions calculées avec ces motifs, publiés ensemble.
+     */
+    private static final class PatternSet {
+        final String[] patterns;
+        final Map<String, Boolean> decisions = new ConcurrentHashMap<>();
+
+        PatternSet(String[] patterns) {
+            this.patterns = patterns;
+        }
+    }
+
+    /**
+     * Correspondance de motif simple: '*' remplace n'importe quelle suite de caractères.
+     */
+    static boolean matches(String pattern, String value) {
+        int p = 0, v = 0, star = -1, mark = 0;
+        while (v < value.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == value.charAt(v)) {
+                p++;
+                v++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = v;
+            } else if (star >= 0) {
+                p = star + 1;
+                v = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') p++;
+        return p == pattern.length();
+    }
+}
@@ -2,45 +2,73 @@ package com.ahmedmili.thunderbgservice.tasks;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
 import android.util.Log;
 import org.json.JSONObject;
 import org.json.JSONException;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Stockage des résultats de tâches pour récupération par JS.
  * Permet aux tâches Java de stocker des données que JS peut récupérer plus tard.
+ *
+ * Les résultats sont répartis en un fichier SharedPreferences par taskId: écrire le
+ * résultat d'une tâche (ou l'effacer) ne réécrit que son propre fichier, et chaque
+ * fichier regroupe ses écritures indépendamment des autres.
+ * Un index (taskId -> fichier) permet clearAll(); il n'est écrit qu'à la création d'un fichier.
+ * La lecture et l'effacement consultent l'index et ne créent jamais de fichier; effacer un
+ * résultat supprime son fichier et son entrée d'index.
  */
 public class TaskResultStorage {
     private static final String TAG = "TaskResultStorage";
-    private static final String PREFS_NAME = "thunder_bg_task_results";
-    
+    private static final String PREFS_NAME = "thunder_bg_task_results"; // Fichier unique historique
+    private static final String INDEX_PREFS_NAME = PREFS_NAME + "_index";
+    private static final String SHARD_PREFIX = PREFS_NAME + "_";
+    private static final String KEY_RESULT = "result";
+    private static final int MAX_SHARD_NAME_LENGTH = 40;
+
+    private static final Map<String, SharedPreferences> shards = new ConcurrentHashMap<>();
+    private static volatile boolean migrated = false;
+
     public static void saveResult(Context context, String taskId, String key, String value) {
+        // Mode "émettre sur changement": éviter la réécriture d'une valeur identique
+        if (!ChangeDetector.shouldStore(context, taskId, key, value)) {
+            return;
+        }
         try {
-            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-            String existing = prefs.getString(taskId, "{}");
-            JSONObject json = new JSONObject(existing);
-            json.put(key, value);
-            json.put("timestamp", System.currentTimeMillis());
-            prefs.edit().putString(taskId, json.toString()).apply();
+            SharedPreferences prefs = getShard(context, taskId);
+            synchronized (prefs) {
+                String existing = prefs.getString(KEY_RESULT, "{}");
+                JSONObject json = new JSONObject(existing);
+                json.put(key, value);
+                json.put("timestamp", System.currentTimeMillis());
+                prefs.edit().putString(KEY_RESULT, json.toString()).apply();
+            }
         } catch (JSONException e) {
             Log.e(TAG, "Error saving result", e);
         }
     }
-    
+
     public static void saveResult(Context context, String taskId, JSONObject data) {
+        if (!ChangeDetector.shouldStore(context, taskId, data)) {
+            return;
+        }
         try {
-            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            SharedPreferences prefs = getShard(context, taskId);
             data.put("timestamp", System.currentTimeMillis());
-            prefs.edit().putString(taskId, data.toString()).apply();
+            prefs.edit().putString(KEY_RESULT, data.toString()).apply();
         } catch (JSONException e) {
             Log.e(TAG, "Error saving result", e);
         }
     }
-    
+
     public static JSONObject getResult(Context context, String taskId) {
         try {
-            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-            String jsonStr = prefs.getString(taskId, null);
+            SharedPreferences prefs = findShard(context, taskId);
+            if (prefs == null) return null;
+            String jsonStr = prefs.getString(KEY_RESULT, null);
             if (jsonStr != null) {
                 return new JSONObject(jsonStr);
             }
@@ -49,15 +77,122 @@ public class TaskResultStorage {
         }
         return null;
     }
-    
+
     public static void clearResult(Context context, String taskId) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        prefs.edit().remove(taskId).apply();
+        ChangeDetector.reset(taskId);
+        ensureMigrated(context);
+        SharedPreferences index = context.getSharedPreferences(INDEX_PREFS_NAME, Context.MODE_PRIVATE);
+        String shardName = index.getString(taskId, null);
+        if (shardName == null) return;
+        deleteShard(context, taskId, shardName);
+        index.edit().remove(taskId).apply();
     }
-    
+
     public static void clearAll(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        prefs.edit().clear().apply();
+        ensureMigrated(context);
+        SharedPreferences index = context.getSharedPreferences(INDEX_PREFS_NAME, Context.MODE_PRIVATE);
+        for (Map.Entry<String, ?> entry : index.getAll().entrySet()) {
+            ChangeDetector.reset(entry.getKey());
+            if (entry.getValue() instanceof String) {
+                deleteShard(context, entry.getKey(), (String) entry.getValue());
+            }
+        }
+        index.edit().clear().apply();
+    }
+
+    /**
+     * Fichier de résultats d'une tâche déjà indexée, sans le créer.
+     * @return null si la tâche n'a jamais stocké de résultat
+     */
+    private static SharedPreferences findShard(Context context, String taskId) {
+        SharedPreferences shard = shards.get(taskId);
+        if (shard != null) {
+            return shard;
+        }
+        ensureMigrated(context);
+        SharedPreferences index = context.getSharedPreferences(INDEX_PREFS_NAME, Context.MODE_PRIVATE);
+        if (!index.contains(taskId)) {
+            return null;
+        }
+        return getShard(context, taskId);
     }
-}
 
+    /**
+     * Supprime le fichier de résultats d'une tâche. Avant l'API 24, le fichier est vidé
+     * (l'instance reste en cache dans le Context) puis effacé du disque.
+     */
+    private static void deleteShard(Context context, String taskId, String shardName) {
+        shards.remove(taskId);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            context.deleteSharedPreferences(shardName);
+            return;
+        }
+        context.getSharedPreferences(shardName, Context.MODE_PRIVATE).edit().clear().commit();
+        File file = new File(new File(context.getApplicationInfo().dataDir, "shared_prefs"), shardName + ".xml");
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Could not delete result file " + file.getName());
+        }
+    }
+
+    /**
+     * Obtient (et enregistre dans l'index si nécessaire) le fichier de résultats d'une tâche.
+     */
+    private static SharedPreferences getShard(Context context, String taskId) {
+        SharedPreferences shard = shards.get(taskId);
+        if (shard != null) {
+            return shard;
+        }
+        ensureMigrated(context);
+        String shardName = shardName(taskId);
+        shard = context.getSharedPreferences(shardName, Context.MODE_PRIVATE);
+        SharedPreferences index = context.getSharedPreferences(INDEX_PREFS_NAME, Context.MODE_PRIVATE);
+        if (!index.contains(taskId)) {
+            index.edit().putString(taskId, shardName).apply();
+        }
+        SharedPreferences existing = shards.putIfAbsent(taskId, shard);
+        return existing != null ? existing : shard;
+    }
+
+    /**
+     * Nom de fichier sûr et unique pour un taskId: caractères non alphanumériques remplacés,
+     * longueur bornée, suffixe de hachage pour éviter les collisions.
+     */
+    private static String shardName(String taskId) {
+        StringBuilder name = new StringBuilder(SHARD_PREFIX);
+        int length = Math.min(taskId.length(), MAX_SHARD_NAME_LENGTH);
+        for (int i = 0; i < length; i++) {
+            char c = taskId.charAt(i);
+            boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+            name.append(safe ? c : '_');
+        }
+        name.append('_').append(Integer.toHexString(taskId.hashCode()));
+        return name.toString();
+    }
+
+    /**
+     * Déplace une seule fois les résultats de l'ancien fichier unique vers les fichiers par tâche.
+     */
+    private static void ensureMigrated(Context context) {
+        if (migrated) return;
+        synchronized (TaskResultStorage.class) {
+            if (migrated) return;
+            SharedPreferences legacy = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            Map<String, ?> all = legacy.getAll();
+            if (!all.isEmpty()) {
+                SharedPreferences.Editor indexEditor = context.getSharedPreferences(INDEX_PREFS_NAME, Context.MODE_PRIVATE).edit();
+                for (Map.Entry<String, ?> entry : all.entrySet()) {
+                    if (!(entry.getValue() instanceof String)) continue;
+                    String shardName = shardName(entry.getKey());
+                    context.getSharedPreferences(shardName, Context.MODE_PRIVATE).edit()
+                        .putString(KEY_RESULT, (String) entry.getValue())
+                        .apply();
+                    indexEditor.putString(entry.getKey(), shardName);
+                }
+                indexEditor.apply();
+                legacy.edit().clear().apply();
+                Log.i(TAG, "Migrated " + all.size() + " task results to per-task storage");
+            }
+            migrated = true;
+        }
+    }
+}
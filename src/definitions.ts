@@ -1,4 +1,6 @@
-export interface StartOptions { notificationTitle: string; notificationSubtitle?: string; enableLocation?: boolean; soundsEnabled?: boolean; [k: string]: any; }
+// 'chronometer': timer dessiné par le système depuis le démarrage (timerViewId doit être un <Chronometer>)
+export type TimerMode = 'none' | 'chronometer';
+export interface StartOptions { notificationTitle: string; notificationSubtitle?: string; enableLocation?: boolean; soundsEnabled?: boolean; timerMode?: TimerMode; heartbeat?: boolean; [k: string]: any; }
 export interface RegisterTaskOptions {
   taskId: string;
   taskClass: string;  // Nom complet de la classe Java (ex: "com.yourpackage.MyTask")
@@ -14,15 +16,75 @@ export interface GeofenceOptions {
   extras?: { [key: string]: string }; // Données supplémentaires
 }
 
+export interface TaskEvent {
+  taskId: string;
+  data: any;
+  timestamp: number;
+}
+
+// Événements émis pendant l'absence de la couche JS, rejoués par lots au chargement du plugin
+export interface TaskEventBatch {
+  events: Array<TaskEvent & { seq: number }>;
+  firstSeq: number;
+  lastSeq: number;
+}
+
+export type BackpressurePolicy = 'unbounded' | 'drop-oldest' | 'drop-newest' | 'latest-only' | 'sample';
+
+export interface TaskEventsOptions {
+  taskId: string;
+  backpressure?: BackpressurePolicy;
+  capacity?: number;         // Taille de file pour drop-oldest / drop-newest (défaut: 64)
+  sampleIntervalMs?: number; // Intervalle minimal pour 'sample' (défaut: 1000)
+  maxEventsPerSecond?: number; // Débit de livraison des files drop-oldest / drop-newest / latest-only (défaut: 10)
+  emitOnChange?: boolean;    // N'émettre/stocker que si la valeur a changé
+  deltaOnly?: boolean;       // Avec emitOnChange: n'émettre que les champs modifiés (supprimés = null)
+}
+
+export interface TaskEventSubscriptionOptions {
+  taskIds?: string[];  // Ids exacts
+  patterns?: string[]; // Motifs avec '*' (ex: "gps.*")
+  all?: boolean;       // unsubscribeTaskEvents uniquement: revenir à l'émission de tous les événements
+}
+
+// Latences en millisecondes (histogramme logarithmique, précision ~12%)
+export interface LatencyStats {
+  count: number;
+  mean: number;
+  p50: number;
+  p90: number;
+  p99: number;
+  max: number;
+}
+
 export interface MetricsData {
   // Métriques de tâches
   taskExecutionCount?: number;
   totalTaskExecutionTime?: number;
   avgTaskExecutionTime?: number;
-  tasks?: { [taskId: string]: any };
+  taskLatency?: LatencyStats;                  // Percentiles globaux (ms)
+  tasks?: { [taskId: string]: LatencyStats };  // Percentiles par tâche (ms)
   
   // Métriques de notifications
   notificationUpdateCount?: number;
+  // Latence des mises à jour par étape: update() -> service, JSON, RemoteViews, notify(), bout en bout
+  // coalesce: attente dans la file de rendu (fusion, limitation de débit)
+  notificationLatency?: { [stage in 'dispatch' | 'coalesce' | 'parse' | 'build' | 'notify' | 'total']?: LatencyStats };
+  // Cache des boutons de notification (récepteur résolu et PendingIntent par viewId/action/extras)
+  buttonCache?: { hits: number; misses: number; hitRate: number; size: number; invalidations: number };
+  // Rendu incrémental: propriétés de vues modifiées vs émises, mises à jour sans effet, taille sérialisée
+  notificationRender?: {
+    renders: number;
+    skipped: number;            // Mises à jour identiques à l'état affiché (aucun notify())
+    coalesced: number;          // Mises à jour fusionnées avec une autre en attente de rendu
+    bindingsCompiled: number;   // Liaisons viewData/boutons ayant dû résoudre des vues ou compiler des boutons
+    bindingsReused: number;     // Liaisons servies entièrement par le plan compilé du layout
+    propertiesChanged: number;
+    propertiesEmitted: number;
+    changedRatio: number;
+    parcelBytes: number;        // Dernière taille mesurée (1 mise à jour sur 16)
+    parcelBytesMax: number;
+  };
   
   // Métriques de localisation
   locationUpdateCount?: number;
@@ -41,6 +103,25 @@ export interface MetricsData {
   currentBatteryLevel?: number;
   batteryDrain?: number;
   battery?: any;
+  // Attribution d'énergie (µAh estimés par composant, décharge mesurée hors charge)
+  energy?: {
+    estimatedUah: {
+      tasks: { [taskId: string]: number };
+      geofences: { total: number; active: number; byId: { [geofenceId: string]: number } };
+      notification: number;
+      location: number;
+      total: number;
+    };
+    measured: {
+      supported: boolean;     // BATTERY_PROPERTY_CHARGE_COUNTER disponible
+      drainUah: number;
+      unpluggedMs: number;
+      avgCurrentUa: number;
+      modelShare: number | null; // Estimation totale / décharge mesurée
+      currentNowUa: number;
+      charging: boolean;
+    };
+  };
   
   // Cache de ressources
   resourceCache?: {
@@ -50,6 +131,199 @@ export interface MetricsData {
     hitRate: number;
   };
   cache?: string;
+
+  // Mode "émettre sur changement"
+  changeDetection?: {
+    checked: number;
+    suppressed: number;
+    suppressionRatio: number;
+  };
+
+  // Contre-pression des événements de tâches
+  eventBackpressure?: {
+    shed: { [policy in BackpressurePolicy]?: number };
+    unobserved: number; // Événements abandonnés faute d'abonnement JS
+    tasks: { [taskId: string]: { policy: BackpressurePolicy; shed: number; queued: number; maxEventsPerSecond?: number } };
+  };
+
+  // Occupation mémoire (dernier relevé, maxima depuis le dernier reset)
+  memory?: MemoryGauges & {
+    javaHeapMaxBytes: number;
+    nativeHeapSizeBytes: number;
+    peak: MemoryGauges;
+    sampledAt: number;        // Timestamp du relevé (ms)
+    sampleIntervalMs: number; // 0 = relevé à la lecture
+  };
+
+  // Démarrages du service (persistés)
+  startup?: StartupMetrics;
+
+  // Santé des executors: imageLoader, tasks, heartbeat, taskEvents, taskEventOutbox, notificationRender
+  executors?: { [name: string]: ExecutorStats };
+
+  // Sauvegarde en mémoire mappée: histogrammes omis si trop grands (relus depuis les préférences)
+  checkpoint?: {
+    enabled: boolean;
+    writes: number;
+    bytes: number;              // Taille de la dernière sauvegarde
+    maxBytes: number;
+    histogramsIncluded: boolean;
+    overflows: number;          // Passages à une sauvegarde sans histogrammes détaillés ou refusée
+  };
+
+  // Présents uniquement avec getMetrics({ groupBy: 'state' }) (en mémoire, depuis le démarrage)
+  currentState?: AppStateValue;
+  byState?: { [state in AppStateValue]?: StateMetrics };
+
+  // Présents uniquement avec getMetrics({ window })
+  window?: { name: MetricsWindow; durationMs: number; coveredMs: number };
+  taskFailureCount?: number;
+  geofenceTriggersByType?: { ENTER: number; EXIT: number };
+  rates?: {
+    taskExecutionsPerMinute: number;
+    notificationUpdatesPerMinute: number;
+    locationUpdatesPerMinute: number;
+    geofenceTriggersPerMinute: number;
+    taskFailuresPerMinute: number;
+    notificationRendersPerMinute: number;
+  };
+}
+
+// Valeurs de AppState côté natif (StateManager)
+export type AppStateValue = 'offline' | 'online' | 'on_ride' | 'waiting_pickup' | 'driving' | 'arrived' | 'completed' | 'custom';
+
+export interface StateMetrics {
+  timeMs: number;                 // Temps passé dans l'état
+  taskRuns: number;
+  taskTimeMs: number;
+  avgTaskMs: number;
+  cpuMs: number;                  // CPU consommé par les tâches, notifications et géofences
+  notificationUpdates: number;
+  locationUpdates: number;
+  geofenceTriggers: number;
+  cpuMsPerMinute: number;
+  notificationUpdatesPerMinute: number;
+}
+
+export type StartupMilestone = 'processStart' | 'serviceCreate' | 'startCommand' | 'foreground' | 'tasksRestored';
+
+export interface StartupMetrics {
+  count: number;
+  coldCount: number;        // Premier démarrage dans un process lancé pour le service
+  warmCount: number;
+  restartCount: number;     // Démarrages après un swipe-kill (onTaskRemoved)
+  restartsThisBoot: number;
+  bootTime: number;         // Heure estimée du boot courant (ms)
+  latency: LatencyStats;    // Durée des démarrages, jusqu'aux tâches restaurées (ms)
+  last?: {
+    type: 'cold' | 'warm' | 'restart';
+    timestamp: number;
+    totalMs: number;
+    sinceTaskRemovedMs?: number; // restart: onTaskRemoved -> tâches restaurées (-1 si inconnu)
+    milestones: { [milestone in StartupMilestone]: number }; // elapsedRealtime (ms), 0 = absent
+  };
+}
+
+export interface ExecutorStats {
+  poolSize?: number;      // Absents si l'executor n'a pas encore été créé
+  activeThreads?: number;
+  queueDepth?: number;    // Tâches en attente d'un thread (schedulers: tâches en retard)
+  completed?: number;
+  shutdown?: boolean;
+  rejected: number;       // Soumissions refusées (executor arrêté)
+  waitTime: LatencyStats; // Soumission ou heure planifiée -> début d'exécution (ms)
+  runTime: LatencyStats;  // Durée d'exécution (ms)
+}
+
+export interface MemoryGauges {
+  bitmapCacheBytes: number;     // Somme des getAllocationByteCount() du cache d'images
+  bitmapCacheEntries: number;
+  resourceCacheEntries: number;
+  taskQueueDepth: number;       // Exécutions de tâches en retard, en attente d'un thread
+  eventQueueDepth: number;      // Événements de tâches en attente du bridge JS
+  outboxPending: number;        // Événements persistés non acquittés
+  javaHeapUsedBytes: number;
+  nativeHeapUsedBytes: number;
+}
+
+// Fenêtres glissantes disponibles (en mémoire, depuis le démarrage du process)
+export type MetricsWindow = '1m' | '5m' | '1h';
+
+export interface MetricsExportOptions {
+  file?: boolean;          // Réécrire périodiquement filesDir/thunder_bg_metrics/metrics.prom
+  fileIntervalMs?: number; // Défaut: 60000 (minimum 5000)
+  http?: boolean;          // GET /metrics sur 127.0.0.1 (builds debuggables uniquement)
+  port?: number;           // Défaut: 9464
+}
+
+export interface MetricsExportStatus {
+  fileEnabled: boolean;
+  filePath: string | null;
+  httpEnabled: boolean;
+  httpPort: number | null;
+}
+
+export interface TracingOptions {
+  enabled: boolean;
+  capacity?: number; // Nombre de spans conservés (défaut: 4096, max: 65536)
+  clear?: boolean;   // Vider le tampon
+}
+
+export interface DumpTraceOptions {
+  includeTrace?: boolean; // Renvoyer aussi le JSON de la trace
+  clear?: boolean;        // Vider le tampon après l'export
+}
+
+export interface TraceDump {
+  path: string;       // filesDir/thunder_bg_traces/trace-<timestamp>.json (5 derniers conservés)
+  eventCount: number;
+  trace?: { traceEvents: any[]; displayTimeUnit: string }; // Format Chrome Trace Event (Perfetto)
+}
+
+export interface MetricsSubscriptionOptions {
+  intervalMs?: number;          // Défaut: 1000 (minimum 250)
+  fields?: (keyof MetricsData)[]; // Champs de premier niveau à diffuser (défaut: tous)
+}
+
+export type DeepPartial<T> = { [K in keyof T]?: T[K] extends object ? DeepPartial<T[K]> | null : T[K] | null };
+
+export interface MetricsUpdate {
+  seq: number;
+  timestamp: number;
+  full: boolean;                        // true pour le premier envoi (toutes les valeurs)
+  changes: DeepPartial<MetricsData>;    // Valeurs modifiées depuis l'envoi précédent (null = supprimée)
+}
+
+export interface PerformanceAlertOptions {
+  enabled?: boolean;          // Défaut: true
+  ratio?: number;             // EWMA récente / référence (défaut: 2)
+  sigma?: number;             // Écarts-types au-dessus de la référence (défaut: 3)
+  minDeltaMs?: number;        // Écart minimal (défaut: 20)
+  sustainedSamples?: number;  // Exécutions consécutives en régression (défaut: 5)
+  warmupSamples?: number;     // Exécutions avant toute détection (défaut: 20)
+  failureBurst?: number;      // Nombre d'échecs (max 16, défaut: 3)
+  failureWindowMs?: number;   // Fenêtre de la rafale (défaut: 300000)
+  minIntervalMs?: number;     // Délai minimal entre deux alertes par tâche et par type (défaut: 600000)
+}
+
+export interface PerformanceAlert {
+  type: 'latency_regression' | 'failure_burst';
+  taskId: string;
+  timestamp: number;
+  // latency_regression
+  baselineMs?: number;
+  currentMs?: number;
+  stdDevMs?: number;
+  lastMs?: number;
+  ratio?: number;
+  // failure_burst
+  failures?: number;
+  windowMs?: number;
+}
+
+export interface MetricsOptions {
+  window?: MetricsWindow; // Compteurs et percentiles de la fenêtre au lieu des totaux
+  groupBy?: 'state';      // Ajoute byState: ventilation par AppState
 }
 
 export interface ThemeConfig {
@@ -70,16 +344,34 @@ export interface ThunderBgServicePlugin {
   start(options: StartOptions): Promise<{ started: boolean }>;
   stop(): Promise<{ stopped: boolean }>;
   update(options: Partial<StartOptions>): Promise<{ updated: boolean }>;
+  // Débit maximal de rendu des mises à jour (défaut: 5/s, limite d'Android; 0 = sans limite).
+  // Les update() rapprochés sont fusionnés, le dernier est toujours affiché.
+  configureNotificationUpdates(options: { maxUpdatesPerSecond: number }): Promise<{ maxUpdatesPerSecond: number }>;
   registerTask(options: RegisterTaskOptions): Promise<{ registered: boolean }>;
   unregisterTask(taskId: string): Promise<{ unregistered: boolean }>;
   getTaskResult(taskId: string): Promise<{ result: any | null }>;
   addListener(event: 'taskEvent', listener: (data: { taskId: string; data: any; timestamp: number }) => void): Promise<{ remove: () => void }>;
+  addListener(event: 'taskEventBatch', listener: (batch: TaskEventBatch) => void): Promise<{ remove: () => void }>;
+  ackTaskEvents(options: { upToSeq: number }): Promise<{ acknowledged: boolean }>;
+  configureTaskEvents(options: TaskEventsOptions): Promise<{ configured: boolean }>;
+  subscribeTaskEvents(options: TaskEventSubscriptionOptions): Promise<{ subscribed: boolean }>;
+  unsubscribeTaskEvents(options: TaskEventSubscriptionOptions): Promise<{ unsubscribed: boolean }>;
+  addListener(event: 'performanceAlert', listener: (alert: PerformanceAlert) => void): Promise<{ remove: () => void }>;
+  addListener(event: 'metricsUpdate', listener: (update: MetricsUpdate) => void): Promise<{ remove: () => void }>;
   removeAllListeners(): Promise<void>;
   addGeofence(options: GeofenceOptions): Promise<{ added: boolean }>;
   removeGeofence(geofenceId: string): Promise<{ removed: boolean }>;
   removeAllGeofences(): Promise<{ removed: boolean }>;
-  getMetrics(): Promise<{ metrics: MetricsData }>;
+  getMetrics(options?: MetricsOptions): Promise<{ metrics: MetricsData }>;
+  subscribeMetrics(options?: MetricsSubscriptionOptions): Promise<{ subscribed: boolean; intervalMs: number }>;
+  unsubscribeMetrics(): Promise<{ unsubscribed: boolean }>;
+  configurePerformanceAlerts(options: PerformanceAlertOptions): Promise<Required<PerformanceAlertOptions>>;
   resetMetrics(): Promise<{ reset: boolean }>;
+  configureMetricsExport(options: MetricsExportOptions): Promise<MetricsExportStatus>;
+  exportMetrics(): Promise<{ text: string }>; // Texte OpenMetrics
+  configureMemoryMetrics(options: { sampleIntervalMs: number }): Promise<{ sampleIntervalMs: number }>; // 0 = relevé à la lecture
+  setTracing(options: TracingOptions): Promise<{ enabled: boolean; capacity: number }>;
+  dumpTrace(options?: DumpTraceOptions): Promise<TraceDump>;
   setTheme(themeName: string): Promise<{ success: boolean; themeName?: string }>;
   createTheme(themeName: string, theme: ThemeConfig): Promise<{ success: boolean }>;
   getCurrentTheme(): Promise<ThemeConfig>;